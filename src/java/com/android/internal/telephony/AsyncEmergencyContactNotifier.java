@@ -41,6 +41,8 @@ public class AsyncEmergencyContactNotifier extends AsyncTask<Void, Void, Void> {
     protected Void doInBackground(Void... params) {
         try {
             BlockedNumberContract.SystemContract.notifyEmergencyContact(mContext);
+            // Blocking is now suppressed; don't wait for the provider's broadcast.
+            BlockChecker.invalidateCache();
         } catch (Exception e) {
             Rlog.e(TAG, "Exception notifying emergency contact: " + e);
         }
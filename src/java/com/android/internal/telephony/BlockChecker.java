@@ -1,11 +1,25 @@
 package com.android.internal.telephony;
 
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.BlockedNumberContract;
+import android.provider.ContactsContract;
+import android.util.ArrayMap;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.telephony.Rlog;
 
+import java.util.WeakHashMap;
+
 /**
  * {@hide} Checks for blocked phone numbers against {@link BlockedNumberContract}
  */
@@ -13,6 +27,54 @@ public class BlockChecker {
     private static final String TAG = "BlockChecker";
     private static final boolean VDBG = false; // STOPSHIP if true.
 
+    /**
+     * How long a cached block status may be used. The cache is invalidated whenever the blocked
+     * numbers, the contacts or the block suppression state change, so this only bounds the
+     * staleness if a change notification is missed; it is long enough to absorb a burst of
+     * messages such as the parts of a multi-part SMS.
+     */
+    @VisibleForTesting
+    public static final long CACHE_TTL_MILLIS = 10 * 1000;
+
+    /** Maximum number of cached phone numbers. */
+    @VisibleForTesting
+    public static final int MAX_CACHE_SIZE = 64;
+
+    /** A cached block status. */
+    private static final class CacheEntry {
+        final int mBlockStatus;
+        final long mTimestamp;
+
+        CacheEntry(int blockStatus, long timestamp) {
+            mBlockStatus = blockStatus;
+            mTimestamp = timestamp;
+        }
+    }
+
+    private static final Object sCacheLock = new Object();
+
+    /** Block status by phone number, for lookups without extras. */
+    @GuardedBy("sCacheLock")
+    private static final ArrayMap<String, CacheEntry> sCache = new ArrayMap<>();
+
+    /** The resolvers the invalidation observers are registered with. */
+    @GuardedBy("sCacheLock")
+    private static final WeakHashMap<ContentResolver, Boolean> sObservedResolvers =
+            new WeakHashMap<>();
+
+    /** Incremented on every invalidation so that in-flight lookups are not cached. */
+    @GuardedBy("sCacheLock")
+    private static int sCacheGeneration;
+
+    @GuardedBy("sCacheLock")
+    private static int sCacheHits;
+
+    @GuardedBy("sCacheLock")
+    private static int sCacheMisses;
+
+    @GuardedBy("sCacheLock")
+    private static int sCacheInvalidations;
+
     /**
      * Returns {@code true} if {@code phoneNumber} is blocked according to {@code extras}.
      * <p>
@@ -64,8 +126,27 @@ public class BlockChecker {
      *         {@link BlockedNumberContract#STATUS_BLOCKED_UNKNOWN_NUMBER}.
      */
     public static int getBlockStatus(Context context, String phoneNumber, Bundle extras) {
+        // The extras change how the provider evaluates the number, so only lookups without them
+        // are cached.
+        boolean cacheable = phoneNumber != null && (extras == null || extras.isEmpty());
+        int generation = 0;
+        if (cacheable) {
+            synchronized (sCacheLock) {
+                ensureCacheObserversLocked(context);
+                CacheEntry entry = sCache.get(phoneNumber);
+                if (entry != null
+                        && SystemClock.elapsedRealtime() - entry.mTimestamp < CACHE_TTL_MILLIS) {
+                    sCacheHits++;
+                    return entry.mBlockStatus;
+                }
+                sCacheMisses++;
+                generation = sCacheGeneration;
+            }
+        }
+
         int blockStatus = BlockedNumberContract.STATUS_NOT_BLOCKED;
         long startTimeNano = System.nanoTime();
+        boolean success = false;
 
         try {
             blockStatus = BlockedNumberContract.SystemContract.shouldSystemBlockNumber(
@@ -73,6 +154,7 @@ public class BlockChecker {
             if (blockStatus != BlockedNumberContract.STATUS_NOT_BLOCKED) {
                 Rlog.d(TAG, phoneNumber + " is blocked.");
             }
+            success = true;
         } catch (Exception e) {
             Rlog.e(TAG, "Exception checking for blocked number: " + e);
         }
@@ -80,6 +162,107 @@ public class BlockChecker {
         if (durationMillis > 500 || VDBG) {
             Rlog.d(TAG, "Blocked number lookup took: " + durationMillis + " ms.");
         }
+
+        if (cacheable && success) {
+            synchronized (sCacheLock) {
+                if (generation == sCacheGeneration) {
+                    if (sCache.size() >= MAX_CACHE_SIZE && !sCache.containsKey(phoneNumber)) {
+                        removeOldestCacheEntryLocked();
+                    }
+                    sCache.put(phoneNumber,
+                            new CacheEntry(blockStatus, SystemClock.elapsedRealtime()));
+                }
+            }
+        }
         return blockStatus;
     }
+
+    /**
+     * Register the observers that invalidate the cache, the first time the cache is used with
+     * the content resolver of {@code context}. Existing entries are dropped at that point, since
+     * changes made through that resolver were not observed before.
+     */
+    @GuardedBy("sCacheLock")
+    private static void ensureCacheObserversLocked(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+        if (sObservedResolvers.containsKey(resolver)) return;
+        sObservedResolvers.put(resolver, Boolean.TRUE);
+        invalidateCacheLocked();
+
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                invalidateCache();
+            }
+        };
+        try {
+            resolver.registerContentObserver(BlockedNumberContract.AUTHORITY_URI, true, observer);
+            // Numbers not in the contacts may be blocked, depending on the enhanced settings.
+            resolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer);
+            // Blocking is suppressed for a while after emergency services were contacted.
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    invalidateCache();
+                }
+            }, new IntentFilter(
+                    BlockedNumberContract.SystemContract.ACTION_BLOCK_SUPPRESSION_STATE_CHANGED),
+                    Context.RECEIVER_EXPORTED);
+        } catch (Exception e) {
+            Rlog.e(TAG, "Exception registering cache observers: " + e);
+        }
+    }
+
+    @GuardedBy("sCacheLock")
+    private static void removeOldestCacheEntryLocked() {
+        int oldest = 0;
+        for (int i = 1; i < sCache.size(); i++) {
+            if (sCache.valueAt(i).mTimestamp < sCache.valueAt(oldest).mTimestamp) {
+                oldest = i;
+            }
+        }
+        sCache.removeAt(oldest);
+    }
+
+    @GuardedBy("sCacheLock")
+    private static void invalidateCacheLocked() {
+        sCache.clear();
+        sCacheGeneration++;
+        sCacheInvalidations++;
+    }
+
+    /**
+     * Drop all cached block statuses, e.g. because the blocked numbers or the block suppression
+     * state changed.
+     */
+    public static void invalidateCache() {
+        synchronized (sCacheLock) {
+            invalidateCacheLocked();
+        }
+    }
+
+    @VisibleForTesting
+    public static int getCacheHits() {
+        synchronized (sCacheLock) {
+            return sCacheHits;
+        }
+    }
+
+    @VisibleForTesting
+    public static int getCacheMisses() {
+        synchronized (sCacheLock) {
+            return sCacheMisses;
+        }
+    }
+
+    /** Dump the state of the block status cache. */
+    public static void dump(IndentingPrintWriter pw) {
+        synchronized (sCacheLock) {
+            int lookups = sCacheHits + sCacheMisses;
+            pw.println("BlockChecker cache: size=" + sCache.size()
+                    + " hits=" + sCacheHits + " misses=" + sCacheMisses
+                    + " hitRate=" + (lookups == 0 ? 0 : sCacheHits * 100 / lookups) + "%"
+                    + " invalidations=" + sCacheInvalidations);
+        }
+    }
 }
@@ -198,6 +198,19 @@ public class CarrierPrivilegesTracker extends Handler {
     @NonNull private final Map<String, Set<String>> mInstalledPackageCerts = new ArrayMap<>();
     // Map of PackageName -> UIDs for that Package
     @NonNull private final Map<String, Set<Integer>> mCachedUids = new ArrayMap<>();
+    // The rules above indexed by certificate hash, rebuilt whenever the rules change so that
+    // checking a package is a lookup per certificate instead of a scan over all rules.
+    @NonNull private Map<String, List<UiccAccessRule>> mCarrierConfigRulesByCert =
+            Collections.emptyMap();
+    @NonNull private Map<String, List<UiccAccessRule>> mUiccRulesByCert = Collections.emptyMap();
+    @Nullable private Map<String, List<UiccAccessRule>> mTestOverrideRulesByCert = null;
+    // Map of PackageName -> privilege status (PACKAGE_* constants) under the current rules. An
+    // entry is dropped when its package changes and the whole map is cleared when rules change,
+    // so only affected packages are re-evaluated.
+    @NonNull private final Map<String, Integer> mPackagePrivilegedStatus = new ArrayMap<>();
+    // Statistics of re-evaluating the privilege status of every installed package.
+    private int mFullRecomputeCount = 0;
+    private long mLastFullRecomputeDurationMicros = 0;
 
     // This should be used to guard critical section either with
     // mPrivilegedPackageInfoLock.readLock() or mPrivilegedPackageInfoLock.writeLock(), but never
@@ -571,11 +584,13 @@ public class CarrierPrivilegesTracker extends Handler {
         }
 
         mInstalledPackageCerts.put(pkg.packageName, certs);
+        mPackagePrivilegedStatus.remove(pkg.packageName);
     }
 
     private void handlePackageRemovedOrDisabledByUser(@Nullable String pkgName) {
         if (pkgName == null) return;
 
+        mPackagePrivilegedStatus.remove(pkgName);
         if (mInstalledPackageCerts.remove(pkgName) == null || mCachedUids.remove(pkgName) == null) {
             Rlog.e(TAG, "Unknown package was uninstalled or disabled by user: " + pkgName);
             return;
@@ -594,6 +609,7 @@ public class CarrierPrivilegesTracker extends Handler {
 
         // Cache SIM rules
         mUiccRules.addAll(getSimRules());
+        onRulesChanged();
 
         // Cache all installed packages and their certs
         refreshInstalledPackageCache();
@@ -642,10 +658,54 @@ public class CarrierPrivilegesTracker extends Handler {
 
         currentRules.clear();
         currentRules.addAll(updatedRules);
+        onRulesChanged();
 
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
 
+    /**
+     * Rebuilds the certificate indexes of the rules and drops all cached package statuses. Must be
+     * called whenever {@link #mCarrierConfigRules}, {@link #mUiccRules} or
+     * {@link #mTestOverrideRules} change.
+     */
+    private void onRulesChanged() {
+        mCarrierConfigRulesByCert = indexRulesByCert(mCarrierConfigRules);
+        mUiccRulesByCert = indexRulesByCert(mUiccRules);
+        mTestOverrideRulesByCert =
+                mTestOverrideRules == null ? null : indexRulesByCert(mTestOverrideRules);
+        mPackagePrivilegedStatus.clear();
+    }
+
+    @NonNull
+    private static Map<String, List<UiccAccessRule>> indexRulesByCert(
+            @NonNull List<UiccAccessRule> rules) {
+        Map<String, List<UiccAccessRule>> index = new ArrayMap<>(rules.size());
+        for (UiccAccessRule rule : rules) {
+            String cert = rule.getCertificateHexString();
+            // A rule without a certificate hash never matches anything.
+            if (cert == null) continue;
+            List<UiccAccessRule> rulesForCert = index.get(cert);
+            if (rulesForCert == null) {
+                rulesForCert = new ArrayList<>(1);
+                index.put(cert, rulesForCert);
+            }
+            rulesForCert.add(rule);
+        }
+        return index;
+    }
+
+    private static boolean anyRuleMatches(@NonNull Map<String, List<UiccAccessRule>> rulesByCert,
+            @NonNull String cert, @NonNull String pkgName) {
+        List<UiccAccessRule> rules = rulesByCert.get(cert);
+        if (rules == null) return false;
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).matches(cert, pkgName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void maybeUpdatePrivilegedPackagesAndNotifyRegistrants() {
         PrivilegedPackageInfo currentPrivilegedPackageInfo =
                 getCurrentPrivilegedPackagesForAllUsers();
@@ -708,8 +768,18 @@ public class CarrierPrivilegesTracker extends Handler {
         Set<String> carrierServiceEligiblePackages = new ArraySet<>();
         Set<String> privilegedPackageNames = new ArraySet<>();
         Set<Integer> privilegedUids = new ArraySet<>();
+        boolean fullRecompute = mPackagePrivilegedStatus.isEmpty()
+                && !mInstalledPackageCerts.isEmpty();
+        long startNanos = SystemClock.elapsedRealtimeNanos();
         for (Map.Entry<String, Set<String>> e : mInstalledPackageCerts.entrySet()) {
-            final int priv = getPackagePrivilegedStatus(e.getKey(), e.getValue());
+            Integer cachedPriv = mPackagePrivilegedStatus.get(e.getKey());
+            final int priv;
+            if (cachedPriv != null) {
+                priv = cachedPriv;
+            } else {
+                priv = getPackagePrivilegedStatus(e.getKey(), e.getValue());
+                mPackagePrivilegedStatus.put(e.getKey(), priv);
+            }
             switch (priv) {
                 case PACKAGE_PRIVILEGED_FROM_SIM:
                 case PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE: // fallthrough
@@ -721,6 +791,11 @@ public class CarrierPrivilegesTracker extends Handler {
                             getUidsForPackage(e.getKey(), /* invalidateCache= */ false));
             }
         }
+        if (fullRecompute) {
+            mFullRecomputeCount++;
+            mLastFullRecomputeDurationMicros =
+                    TimeUnit.NANOSECONDS.toMicros(SystemClock.elapsedRealtimeNanos() - startNanos);
+        }
 
         return new PrivilegedPackageInfo(
                 privilegedPackageNames,
@@ -735,29 +810,22 @@ public class CarrierPrivilegesTracker extends Handler {
      * carrier config, from test overrides or from certificates stored on the SIM.
      */
     private int getPackagePrivilegedStatus(@NonNull String pkgName, @NonNull Set<String> certs) {
-        // Double-nested for loops, but each collection should contain at most 2 elements in nearly
-        // every case.
-        // TODO(b/184382310) find a way to speed this up
+        // Each package has at most a few certificate hashes (SHA-1 and SHA-256 per signature), and
+        // the rules are indexed by certificate hash.
         for (String cert : certs) {
             // Non-null (whether empty or not) test override rule will ignore the UICC and CC rules
-            if (mTestOverrideRules != null) {
-                for (UiccAccessRule rule : mTestOverrideRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return PACKAGE_PRIVILEGED_FROM_SIM;
-                    }
+            if (mTestOverrideRulesByCert != null) {
+                if (anyRuleMatches(mTestOverrideRulesByCert, cert, pkgName)) {
+                    return PACKAGE_PRIVILEGED_FROM_SIM;
                 }
             } else {
-                for (UiccAccessRule rule : mUiccRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return PACKAGE_PRIVILEGED_FROM_SIM;
-                    }
+                if (anyRuleMatches(mUiccRulesByCert, cert, pkgName)) {
+                    return PACKAGE_PRIVILEGED_FROM_SIM;
                 }
-                for (UiccAccessRule rule : mCarrierConfigRules) {
-                    if (rule.matches(cert, pkgName)) {
-                        return pkgName.equals(mTestOverrideCarrierServicePackage)
-                                ? PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE
-                                : PACKAGE_PRIVILEGED_FROM_CARRIER_CONFIG;
-                    }
+                if (anyRuleMatches(mCarrierConfigRulesByCert, cert, pkgName)) {
+                    return pkgName.equals(mTestOverrideCarrierServicePackage)
+                            ? PACKAGE_PRIVILEGED_FROM_CARRIER_SERVICE_TEST_OVERRIDE
+                            : PACKAGE_PRIVILEGED_FROM_CARRIER_CONFIG;
                 }
             }
         }
@@ -826,6 +894,8 @@ public class CarrierPrivilegesTracker extends Handler {
                                     e -> "pkg(" + Rlog.pii(TAG, e.getKey()) + ")=" + e.getValue()));
         }
         pw.println("mClearUiccRulesUptimeMillis: " + mClearUiccRulesUptimeMillis);
+        pw.println("CarrierPrivilegesTracker - Full recomputes: " + mFullRecomputeCount
+                + ", last took " + mLastFullRecomputeDurationMicros + "us");
     }
 
     /**
@@ -861,6 +931,7 @@ public class CarrierPrivilegesTracker extends Handler {
     private void handleSetTestOverrideCarrierServicePackage(
             @Nullable String carrierServicePackage) {
         mTestOverrideCarrierServicePackage = carrierServicePackage;
+        mPackagePrivilegedStatus.clear();
         refreshInstalledPackageCache();
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
@@ -879,6 +950,7 @@ public class CarrierPrivilegesTracker extends Handler {
             // best effort.
             refreshInstalledPackageCache();
         }
+        onRulesChanged();
         maybeUpdatePrivilegedPackagesAndNotifyRegistrants();
     }
 
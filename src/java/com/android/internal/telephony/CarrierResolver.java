@@ -30,6 +30,7 @@ import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Telephony;
 import android.service.carrier.CarrierIdentifier;
 import android.telephony.CarrierConfigManager;
@@ -39,6 +40,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.LocalLog;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.metrics.CarrierIdMatchStats;
@@ -74,6 +76,9 @@ public class CarrierResolver extends Handler {
     private static final int PREFER_APN_UPDATE_EVENT    = 3;
     private static final int CARRIER_ID_DB_UPDATE_EVENT = 4;
 
+    // max number of mccmnc whose matching rules are cached
+    private static final int MAX_CACHED_MCCMNC_COUNT = 4;
+
     private static final Uri CONTENT_URL_PREFER_APN = Uri.withAppendedPath(
             Telephony.Carriers.CONTENT_URI, "preferapn");
 
@@ -85,6 +90,15 @@ public class CarrierResolver extends Handler {
     private Integer mCarrierListVersion;
     // cached matching rules based mccmnc to speed up resolution
     private List<CarrierMatchingRule> mCarrierMatchingRulesOnMccMnc = new ArrayList<>();
+    // cached matching rules of recently loaded mccmnc for the current carrier list version, so
+    // that reloading the same SIM doesn't query the carrier id provider again.
+    private final LruCache<String, List<CarrierMatchingRule>> mCarrierMatchingRulesCache =
+            new LruCache<>(MAX_CACHED_MCCMNC_COUNT);
+    private int mCarrierMatchingRulesCacheHitCount;
+    private int mCarrierMatchingRulesCacheMissCount;
+    // latency of loading the matching rules and resolving the carrier, in milliseconds
+    private long mLastResolutionLatencyMs;
+    private long mMaxResolutionLatencyMs;
     // cached carrier Id
     private int mCarrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
     // cached specific carrier Id
@@ -241,7 +255,8 @@ public class CarrierResolver extends Handler {
     }
 
     private void handleSimAbsent() {
-        mCarrierMatchingRulesOnMccMnc.clear();
+        // the list might be shared with the rules cache, so replace it instead of clearing it.
+        mCarrierMatchingRulesOnMccMnc = new ArrayList<>();
         mSpn = null;
         mPreferApn = null;
         updateCarrierIdAndName(TelephonyManager.UNKNOWN_CARRIER_ID, null,
@@ -287,8 +302,10 @@ public class CarrierResolver extends Handler {
                 handleSimLoaded(isSimOverride);
                 break;
             case CARRIER_ID_DB_UPDATE_EVENT:
-                // clean the cached carrier list version, so that a new one will be queried.
+                // clean the cached carrier list version and matching rules, so that new ones
+                // will be queried.
                 mCarrierListVersion = null;
+                mCarrierMatchingRulesCache.evictAll();
                 loadCarrierMatchingRulesOnMccMnc(true /* update carrier config*/, false);
                 break;
             case PREFER_APN_UPDATE_EVENT:
@@ -327,37 +344,65 @@ public class CarrierResolver extends Handler {
             boolean updateCarrierConfig,
             boolean isSimOverride) {
         try {
+            final long startTime = SystemClock.elapsedRealtime();
             String mccmnc = mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId());
-            Cursor cursor = mContext.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=?",
-                    /* selectionArgs */ new String[]{mccmnc}, null);
-            try {
-                if (cursor != null) {
-                    if (VDBG) {
-                        logd("[loadCarrierMatchingRules]- " + cursor.getCount()
-                                + " Records(s) in DB" + " mccmnc: " + mccmnc);
-                    }
-                    mCarrierMatchingRulesOnMccMnc.clear();
-                    while (cursor.moveToNext()) {
-                        mCarrierMatchingRulesOnMccMnc.add(makeCarrierMatchingRule(cursor));
-                    }
-                    matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
-
-                    // Generate metrics related to carrier ID table version.
-                    CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+            String cacheKey = (mccmnc == null) ? "" : mccmnc;
+            List<CarrierMatchingRule> rules = mCarrierMatchingRulesCache.get(cacheKey);
+            if (rules != null) {
+                mCarrierMatchingRulesCacheHitCount++;
+            } else {
+                rules = queryCarrierMatchingRulesOnMccMnc(mccmnc);
+                if (rules == null) {
+                    return;
                 }
+                mCarrierMatchingRulesCacheMissCount++;
+                mCarrierMatchingRulesCache.put(cacheKey, rules);
+            }
+            mCarrierMatchingRulesOnMccMnc = rules;
+            matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
+
+            mLastResolutionLatencyMs = SystemClock.elapsedRealtime() - startTime;
+            mMaxResolutionLatencyMs = Math.max(mMaxResolutionLatencyMs, mLastResolutionLatencyMs);
+            if (VDBG) {
+                logd("[loadCarrierMatchingRules]- resolved in " + mLastResolutionLatencyMs + "ms");
             }
+
+            // Generate metrics related to carrier ID table version.
+            CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
         }
     }
 
+    /**
+     * Query the carrier matching rules of the given mccmnc from the carrier id provider.
+     *
+     * @param mccmnc the mccmnc of the subscription.
+     * @return the matching rules, or {@code null} if the provider is not available.
+     */
+    @Nullable
+    private List<CarrierMatchingRule> queryCarrierMatchingRulesOnMccMnc(String mccmnc) {
+        // The auto closeable cursor will be closed after exiting try-block.
+        try (Cursor cursor = mContext.getContentResolver().query(
+                CarrierId.All.CONTENT_URI,
+                /* projection */ null,
+                /* selection */ CarrierId.All.MCCMNC + "=?",
+                /* selectionArgs */ new String[]{mccmnc}, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            if (VDBG) {
+                logd("[loadCarrierMatchingRules]- " + cursor.getCount()
+                        + " Records(s) in DB" + " mccmnc: " + mccmnc);
+            }
+            List<CarrierMatchingRule> rules = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                rules.add(makeCarrierMatchingRule(cursor));
+            }
+            return rules;
+        }
+    }
+
     private String getCarrierNameFromId(int cid) {
         try {
             Cursor cursor = mContext.getContentResolver().query(
@@ -1207,6 +1252,10 @@ public class CarrierResolver extends Handler {
             ipw.println(rule.toString());
         }
         ipw.decreaseIndent();
+        ipw.println("mCarrierMatchingRulesCache hit: " + mCarrierMatchingRulesCacheHitCount
+                + " miss: " + mCarrierMatchingRulesCacheMissCount);
+        ipw.println("resolution latency last: " + mLastResolutionLatencyMs
+                + "ms max: " + mMaxResolutionLatencyMs + "ms");
 
         ipw.println("mSpn: " + mSpn);
         ipw.println("mPreferApn: " + mPreferApn);
@@ -64,6 +64,13 @@ public final class CellBroadcastConfigTracker extends StateMachine {
     private List<CellBroadcastIdRange> mCbRanges3gpp = new CopyOnWriteArrayList<>();
     // Cache of current cell broadcast id ranges of 3gpp2
     private List<CellBroadcastIdRange> mCbRanges3gpp2 = new CopyOnWriteArrayList<>();
+    // The last gsm/cdma activation acknowledged by the modem, or null if unknown
+    private Boolean mGsmActivated;
+    private Boolean mCdmaActivated;
+    // Callbacks of requests superseded by a later request before being sent to the modem
+    private final List<Consumer<Integer>> mSupersededCallbacks = new ArrayList<>();
+    // Number of modem requests not sent because they would not change the modem state
+    private int mAvoidedRilRequests;
     private Phone mPhone;
     private final LocalLog mLocalLog = new LocalLog(128);
     @VisibleForTesting
@@ -182,6 +189,15 @@ public final class CellBroadcastConfigTracker extends StateMachine {
             switch (msg.what) {
                 case EVENT_REQUEST:
                     Request request = (Request) msg.obj;
+                    if (hasMessages(EVENT_REQUEST)) {
+                        // A later request replaces the ranges of this one, so only the latest
+                        // is sent to the modem and its result is reported to both callers.
+                        logd("Skip request superseded by a later one:" + request);
+                        mSupersededCallbacks.add(request.getCallback());
+                        mAvoidedRilRequests++;
+                        retVal = HANDLED;
+                        break;
+                    }
                     if (DBG) {
                         logd("IdleState handle EVENT_REQUEST with request:" + request);
                         mLocalLog.log("IdleState handle EVENT_REQUEST with request:" + request
@@ -199,8 +215,8 @@ public final class CellBroadcastConfigTracker extends StateMachine {
                         transitionTo(mCdmaConfiguringState);
                     } else {
                         logd("Do nothing as the requested ranges are same as now");
-                        request.getCallback().accept(
-                                TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
+                        mAvoidedRilRequests++;
+                        completeRequest(request, TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
                     }
                     retVal = HANDLED;
                     break;
@@ -235,14 +251,20 @@ public final class CellBroadcastConfigTracker extends StateMachine {
                                 + request);
                     }
                     if (ar.exception == null) {
-                        // set gsm activation and transit to gsm activating state
-                        setActivation(SmsCbMessage.MESSAGE_FORMAT_3GPP,
-                                !request.get3gppRanges().isEmpty(), request);
-                        transitionTo(mGsmActivatingState);
+                        boolean activate = !request.get3gppRanges().isEmpty();
+                        if (mGsmActivated != null && mGsmActivated == activate) {
+                            logd("Skip gsm activation as it is already " + activate);
+                            mAvoidedRilRequests++;
+                            onGsmActivated(request);
+                        } else {
+                            // set gsm activation and transit to gsm activating state
+                            setActivation(SmsCbMessage.MESSAGE_FORMAT_3GPP, activate, request);
+                            transitionTo(mGsmActivatingState);
+                        }
                     } else {
                         logd("Failed to set gsm config");
                         mLocalLog.log("GsmConfiguringState Failed to set gsm config:" + request);
-                        request.getCallback().accept(
+                        completeRequest(request,
                                 TelephonyManager.CELL_BROADCAST_RESULT_FAIL_CONFIG);
                         // transit to idle state on the failure case
                         transitionTo(mIdleState);
@@ -282,22 +304,12 @@ public final class CellBroadcastConfigTracker extends StateMachine {
                                 + ar.exception + ", request:" + request);
                     }
                     if (ar.exception == null) {
-                        mCbRanges3gpp = request.get3gppRanges();
-                        if (!mCbRanges3gpp2.equals(request.get3gpp2Ranges())) {
-                            // set cdma config and transit to cdma configuring state if the config
-                            // is changed.
-                            setCdmaConfig(request.get3gpp2Ranges(), request);
-                            transitionTo(mCdmaConfiguringState);
-                        } else {
-                            logd("Done as no need to update ranges for 3gpp2");
-                            request.getCallback().accept(
-                                    TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
-                            // transit to idle state if there is no cdma config change
-                            transitionTo(mIdleState);
-                        }
+                        mGsmActivated = !request.get3gppRanges().isEmpty();
+                        onGsmActivated(request);
                     } else {
                         logd("Failed to set gsm activation");
-                        request.getCallback().accept(
+                        mGsmActivated = null;
+                        completeRequest(request,
                                 TelephonyManager.CELL_BROADCAST_RESULT_FAIL_ACTIVATION);
                         // transit to idle state on the failure case
                         transitionTo(mIdleState);
@@ -312,6 +324,25 @@ public final class CellBroadcastConfigTracker extends StateMachine {
     }
     private GsmActivatingState mGsmActivatingState = new GsmActivatingState();
 
+    /**
+     * Continue with the 3gpp2 ranges once the 3gpp ranges of the request are configured and
+     * activated.
+     */
+    private void onGsmActivated(Request request) {
+        mCbRanges3gpp = request.get3gppRanges();
+        if (!mCbRanges3gpp2.equals(request.get3gpp2Ranges())) {
+            // set cdma config and transit to cdma configuring state if the config
+            // is changed.
+            setCdmaConfig(request.get3gpp2Ranges(), request);
+            transitionTo(mCdmaConfiguringState);
+        } else {
+            logd("Done as no need to update ranges for 3gpp2");
+            completeRequest(request, TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
+            // transit to idle state if there is no cdma config change
+            transitionTo(mIdleState);
+        }
+    }
+
     /*
      * The state waiting for the result to set cdma config.
      */
@@ -335,14 +366,23 @@ public final class CellBroadcastConfigTracker extends StateMachine {
                                 + request);
                     }
                     if (ar.exception == null) {
-                        // set cdma activation and transit to cdma activating state
-                        setActivation(SmsCbMessage.MESSAGE_FORMAT_3GPP2,
-                                !request.get3gpp2Ranges().isEmpty(), request);
-                        transitionTo(mCdmaActivatingState);
+                        boolean activate = !request.get3gpp2Ranges().isEmpty();
+                        if (mCdmaActivated != null && mCdmaActivated == activate) {
+                            logd("Skip cdma activation as it is already " + activate);
+                            mAvoidedRilRequests++;
+                            mCbRanges3gpp2 = request.get3gpp2Ranges();
+                            completeRequest(request,
+                                    TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
+                            transitionTo(mIdleState);
+                        } else {
+                            // set cdma activation and transit to cdma activating state
+                            setActivation(SmsCbMessage.MESSAGE_FORMAT_3GPP2, activate, request);
+                            transitionTo(mCdmaActivatingState);
+                        }
                     } else {
                         logd("Failed to set cdma config");
                         mLocalLog.log("CdmaConfiguringState Failed to set cdma config:" + request);
-                        request.getCallback().accept(
+                        completeRequest(request,
                                 TelephonyManager.CELL_BROADCAST_RESULT_FAIL_CONFIG);
                         // transit to idle state on the failure case
                         transitionTo(mIdleState);
@@ -382,12 +422,13 @@ public final class CellBroadcastConfigTracker extends StateMachine {
                                 + ar.exception + ", request:" + request);
                     }
                     if (ar.exception == null) {
+                        mCdmaActivated = !request.get3gpp2Ranges().isEmpty();
                         mCbRanges3gpp2 = request.get3gpp2Ranges();
-                        request.getCallback().accept(
-                                    TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
+                        completeRequest(request, TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS);
                     } else {
                         logd("Failed to set cdma activation");
-                        request.getCallback().accept(
+                        mCdmaActivated = null;
+                        completeRequest(request,
                                 TelephonyManager.CELL_BROADCAST_RESULT_FAIL_ACTIVATION);
                     }
                     // transit to idle state anyway
@@ -501,6 +542,19 @@ public final class CellBroadcastConfigTracker extends StateMachine {
     private void resetConfig() {
         mCbRanges3gpp.clear();
         mCbRanges3gpp2.clear();
+        mGsmActivated = null;
+        mCdmaActivated = null;
+    }
+
+    /**
+     * Report the result of the request, and of the requests it superseded, to their callers.
+     */
+    private void completeRequest(Request request, int result) {
+        request.getCallback().accept(result);
+        for (Consumer<Integer> callback : mSupersededCallbacks) {
+            callback.accept(result);
+        }
+        mSupersededCallbacks.clear();
     }
 
     private void setGsmConfig(List<CellBroadcastIdRange> ranges, Request request) {
@@ -564,6 +618,8 @@ public final class CellBroadcastConfigTracker extends StateMachine {
         pw.increaseIndent();
         pw.println("Current mCbRanges3gpp:" + mCbRanges3gpp);
         pw.println("Current mCbRanges3gpp2:" + mCbRanges3gpp2);
+        pw.println("mGsmActivated:" + mGsmActivated + ", mCdmaActivated:" + mCdmaActivated);
+        pw.println("Avoided RIL requests:" + mAvoidedRilRequests);
         pw.decreaseIndent();
 
         pw.println("Local logs:");
@@ -22,6 +22,7 @@ import android.os.Message;
 import android.os.PersistableBundle;
 import android.os.Registrant;
 import android.os.RegistrantList;
+import android.os.SystemProperties;
 import android.telephony.AnomalyReporter;
 import android.telephony.CarrierConfigManager;
 import android.telephony.ServiceState;
@@ -31,6 +32,7 @@ import android.util.IndentingPrintWriter;
 import android.util.LocalLog;
 import android.util.Pair;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.flags.FeatureFlags;
 import com.android.telephony.Rlog;
 
@@ -71,6 +73,29 @@ public class DisplayInfoController extends Handler {
     private static final int EVENT_SERVICE_STATE_CHANGED = 1;
     /** Event for carrier config changed. */
     private static final int EVENT_CARRIER_CONFIG_CHANGED = 2;
+    /**
+     * Event for publishing the pending display info once the coalescing window expires. arg1 is
+     * {@code 1} for the deadline after which the pending display info is published even if it is
+     * not stable.
+     */
+    private static final int EVENT_PUBLISH_PENDING_DISPLAY_INFO = 3;
+    /** Event for the pending display info having held for the minimum dwell time. */
+    private static final int EVENT_PENDING_DISPLAY_INFO_STABLE = 4;
+
+    /**
+     * System property for the display info coalescing window in milliseconds. A changed display
+     * info is held for the window, starting when the first pending change arrives. It is then
+     * published if the latest candidate has held for at least half the window; otherwise it is
+     * published as soon as the latest candidate has held that long. Flapping back to the
+     * published value drops the pending one.
+     *
+     * While NR/LTE keeps flapping faster than that, the latest candidate is published anyway two
+     * windows after the first pending change. This trades the stable value for a bounded delay:
+     * an update can't be held for longer than two windows, but it may then show a value that is
+     * about to flap again. {@code 0} publishes immediately.
+     */
+    private static final String PROPERTY_COALESCING_WINDOW_MS =
+            "persist.radio.display_info_coalescing_window_ms";
 
     @NonNull private final Phone mPhone;
     @NonNull private final NetworkTypeController mNetworkTypeController;
@@ -80,11 +105,24 @@ public class DisplayInfoController extends Handler {
     @NonNull private TelephonyDisplayInfo mTelephonyDisplayInfo;
     @NonNull private ServiceState mServiceState;
     @NonNull private PersistableBundle mConfigs;
+    /** The display info waiting for the coalescing window to expire, or {@code null} if none. */
+    private TelephonyDisplayInfo mPendingDisplayInfo;
+    /** Whether the pending display info has held for the minimum dwell time. */
+    private boolean mPendingDisplayInfoStable;
+    /** Whether the coalescing window of the pending display info has expired. */
+    private boolean mCoalescingWindowExpired;
+    private long mCoalescingWindowMillis;
+    /** The number of display info updates requested by upstream components. */
+    private long mRawUpdateCount;
+    /** The number of display info updates published to the registrants. */
+    private long mPublishedUpdateCount;
 
     public DisplayInfoController(@NonNull Phone phone, @NonNull FeatureFlags featureFlags) {
         mPhone = phone;
         mFeatureFlags = featureFlags;
         mLogTag = "DIC-" + mPhone.getPhoneId();
+        mCoalescingWindowMillis = Math.max(0,
+                SystemProperties.getLong(PROPERTY_COALESCING_WINDOW_MS, 0));
         mServiceState = mPhone.getServiceStateTracker().getServiceState();
         mConfigs = new PersistableBundle();
         try {
@@ -95,8 +133,11 @@ public class DisplayInfoController extends Handler {
             // CarrierConfigLoader might not be available yet.
             // Once it's available, configs will be updated through the listener.
         }
+        // Only the data network type and roaming are used to build the display info.
         mPhone.getServiceStateTracker()
-                .registerForServiceStateChanged(this, EVENT_SERVICE_STATE_CHANGED, null);
+                .registerForServiceStateChanged(this, EVENT_SERVICE_STATE_CHANGED, null,
+                        ServiceStateTracker.SERVICE_STATE_FIELD_DATA_REGISTRATION
+                                | ServiceStateTracker.SERVICE_STATE_FIELD_ROAMING);
         mPhone.getContext().getSystemService(CarrierConfigManager.class)
                 .registerCarrierConfigChangeListener(Runnable::run,
                         (slotIndex, subId, carrierId, specificCarrierId) -> {
@@ -126,20 +167,87 @@ public class DisplayInfoController extends Handler {
      * NetworkTypeController.
      */
     public void updateTelephonyDisplayInfo() {
+        mRawUpdateCount++;
         TelephonyDisplayInfo newDisplayInfo = new TelephonyDisplayInfo(
                 mNetworkTypeController.getDataNetworkType(),
                 mNetworkTypeController.getOverrideNetworkType(),
                 isRoaming());
+        if (mCoalescingWindowMillis == 0) {
+            publishTelephonyDisplayInfo(newDisplayInfo);
+            return;
+        }
+
+        if (newDisplayInfo.equals(mTelephonyDisplayInfo)) {
+            // Flapped back to the published value before the window expired.
+            if (mPendingDisplayInfo != null) {
+                log("Drop pending TelephonyDisplayInfo " + mPendingDisplayInfo);
+                clearPendingDisplayInfo();
+            }
+        } else if (!newDisplayInfo.equals(mPendingDisplayInfo)) {
+            // Only the first pending change starts the window. A new candidate has to hold for
+            // the minimum dwell time before it is published.
+            if (mPendingDisplayInfo == null) {
+                sendEmptyMessageDelayed(EVENT_PUBLISH_PENDING_DISPLAY_INFO,
+                        mCoalescingWindowMillis);
+            }
+            mPendingDisplayInfo = newDisplayInfo;
+            mPendingDisplayInfoStable = false;
+            removeMessages(EVENT_PENDING_DISPLAY_INFO_STABLE);
+            sendEmptyMessageDelayed(EVENT_PENDING_DISPLAY_INFO_STABLE,
+                    mCoalescingWindowMillis / 2);
+        }
+    }
+
+    /**
+     * Publish the pending display info, if any.
+     */
+    private void publishPendingDisplayInfo() {
+        TelephonyDisplayInfo pending = mPendingDisplayInfo;
+        clearPendingDisplayInfo();
+        if (pending != null) {
+            publishTelephonyDisplayInfo(pending);
+        }
+    }
+
+    /**
+     * Drop the pending display info and stop its coalescing window.
+     */
+    private void clearPendingDisplayInfo() {
+        mPendingDisplayInfo = null;
+        mPendingDisplayInfoStable = false;
+        mCoalescingWindowExpired = false;
+        removeMessages(EVENT_PUBLISH_PENDING_DISPLAY_INFO);
+        removeMessages(EVENT_PENDING_DISPLAY_INFO_STABLE);
+    }
+
+    /**
+     * Publish the display info to the registrants if it is different from the current one.
+     *
+     * @param newDisplayInfo The display info to publish.
+     */
+    private void publishTelephonyDisplayInfo(@NonNull TelephonyDisplayInfo newDisplayInfo) {
         if (!newDisplayInfo.equals(mTelephonyDisplayInfo)) {
             logl("TelephonyDisplayInfo changed from " + mTelephonyDisplayInfo + " to "
                     + newDisplayInfo);
             validateDisplayInfo(newDisplayInfo);
             mTelephonyDisplayInfo = newDisplayInfo;
+            mPublishedUpdateCount++;
             mTelephonyDisplayInfoChangedRegistrants.notifyRegistrants();
             mPhone.notifyDisplayInfoChanged(mTelephonyDisplayInfo);
         }
     }
 
+    /**
+     * Set the display info coalescing window. Any pending display info is published immediately.
+     *
+     * @param windowMillis The coalescing window in milliseconds. {@code 0} disables coalescing.
+     */
+    @VisibleForTesting
+    public void setCoalescingWindowMillis(long windowMillis) {
+        mCoalescingWindowMillis = Math.max(0, windowMillis);
+        publishPendingDisplayInfo();
+    }
+
     /**
      * Determine the roaming status for icon display only.
      * If this is {@code true}, the roaming indicator will be shown, and if this is {@code false},
@@ -224,6 +332,23 @@ public class DisplayInfoController extends Handler {
                 log("Carrier configs updated: " + mConfigs);
                 updateTelephonyDisplayInfo();
                 break;
+            case EVENT_PUBLISH_PENDING_DISPLAY_INFO:
+                if (mPendingDisplayInfoStable || msg.arg1 == 1) {
+                    publishPendingDisplayInfo();
+                } else {
+                    // Still flapping. Wait for the latest candidate to hold, up to one more
+                    // window.
+                    mCoalescingWindowExpired = true;
+                    sendMessageDelayed(obtainMessage(EVENT_PUBLISH_PENDING_DISPLAY_INFO,
+                            1 /* deadline */, 0), mCoalescingWindowMillis);
+                }
+                break;
+            case EVENT_PENDING_DISPLAY_INFO_STABLE:
+                mPendingDisplayInfoStable = true;
+                if (mCoalescingWindowExpired) {
+                    publishPendingDisplayInfo();
+                }
+                break;
         }
     }
 
@@ -269,6 +394,11 @@ public class DisplayInfoController extends Handler {
         pw.println("DisplayInfoController:");
         pw.println(" mPhone=" + mPhone.getPhoneName());
         pw.println(" mTelephonyDisplayInfo=" + mTelephonyDisplayInfo.toString());
+        pw.println(" mPendingDisplayInfo=" + mPendingDisplayInfo);
+        pw.println(" mPendingDisplayInfoStable=" + mPendingDisplayInfoStable);
+        pw.println(" mCoalescingWindowMillis=" + mCoalescingWindowMillis);
+        pw.println(" mRawUpdateCount=" + mRawUpdateCount);
+        pw.println(" mPublishedUpdateCount=" + mPublishedUpdateCount);
         pw.flush();
         pw.println("Local logs:");
         pw.increaseIndent();
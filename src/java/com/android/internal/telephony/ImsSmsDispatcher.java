@@ -204,6 +204,7 @@ public class ImsSmsDispatcher extends SMSDispatcher {
                             mSmsDispatchersController.putDeliveryPendingTracker(tracker);
                         }
                         tracker.onSent(mContext);
+                        onMessageSendCompleted(tracker, true /* success */);
                         mTrackers.remove(token);
                         mPhone.notifySmsSent(tracker.mDestAddress);
                         mSmsDispatchersController.notifySmsSent(tracker, true,
@@ -211,6 +212,7 @@ public class ImsSmsDispatcher extends SMSDispatcher {
                         break;
                     case ImsSmsImplBase.SEND_STATUS_ERROR:
                         tracker.onFailed(mContext, reason, networkReasonCode);
+                        onMessageSendCompleted(tracker, false /* success */);
                         mTrackers.remove(token);
                         notifySmsSentFailedToEmergencyStateTracker(tracker, true);
                         break;
@@ -230,6 +232,7 @@ public class ImsSmsDispatcher extends SMSDispatcher {
                                     getSmsRetryDelayValue());
                         } else {
                             tracker.onFailed(mContext, reason, networkReasonCode);
+                            onMessageSendCompleted(tracker, false /* success */);
                             mTrackers.remove(token);
                             notifySmsSentFailedToEmergencyStateTracker(tracker, true);
                         }
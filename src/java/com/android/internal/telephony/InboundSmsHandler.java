@@ -163,6 +163,9 @@ public abstract class InboundSmsHandler extends StateMachine {
 
     public static final String SELECT_BY_ID = "_id=?";
 
+    /** Maximum number of row ids bound into a single raw table delete. */
+    static final int MAX_ROW_IDS_PER_DELETE = 50;
+
     /** New SMS received as an AsyncResult. */
     public static final int EVENT_NEW_SMS = 1;
 
@@ -224,6 +227,17 @@ public abstract class InboundSmsHandler extends StateMachine {
     protected static final Uri sRawUriPermanentDelete =
             Uri.withAppendedPath(Telephony.Sms.CONTENT_URI, "raw/permanentDelete");
 
+    /** Index of the multi-part segments in the raw table, shared by all inbound SMS handlers. */
+    @VisibleForTesting
+    public static final InboundSmsReassemblyIndex sReassemblyIndex =
+            new InboundSmsReassemblyIndex();
+
+    /** Raw table I/O done by this handler, for dumpsys. */
+    private int mRawTableQueryCount;
+    private int mRawTableInsertCount;
+    private int mRawTableDeleteCount;
+    private int mRawTableQueriesAvoided;
+
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected final Context mContext;
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -452,6 +466,9 @@ public abstract class InboundSmsHandler extends StateMachine {
                     return HANDLED;
 
                 case EVENT_START_ACCEPTING_SMS:
+                    // SmsBroadcastUndelivered has started processing the raw table; pick up any
+                    // segments left over from before the restart.
+                    sReassemblyIndex.rebuild(mResolver);
                     transitionTo(mIdleState);
                     return HANDLED;
 
@@ -946,6 +963,16 @@ public abstract class InboundSmsHandler extends StateMachine {
             block = BlockChecker.isBlocked(mContext, tracker.getDisplayAddress(), null);
         } else {
             // multi-part message
+            int indexedCount = sReassemblyIndex.getSegmentCount(tracker);
+            if (indexedCount >= 0 && indexedCount < messageCount) {
+                // The index never under-counts, so the query below could not find all parts.
+                mRawTableQueriesAvoided++;
+                log("processMessagePart: returning false. Only " + indexedCount + " of "
+                        + messageCount + " segments have arrived (indexed). refNumber: "
+                        + tracker.getReferenceNumber(), tracker.getMessageId());
+                return false;
+            }
+
             Cursor cursor = null;
             try {
                 // used by several query selection arguments
@@ -954,6 +981,7 @@ public abstract class InboundSmsHandler extends StateMachine {
 
                 // query for all segments and broadcast message if we have all the parts
                 String[] whereArgs = {address, refNumber, count};
+                mRawTableQueryCount++;
                 cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
                         tracker.getQueryForSegments(), whereArgs, null);
 
@@ -1461,7 +1489,9 @@ public abstract class InboundSmsHandler extends StateMachine {
     private void deleteFromRawTable(String deleteWhere, String[] deleteWhereArgs,
                                     int deleteType) {
         Uri uri = deleteType == DELETE_PERMANENTLY ? sRawUriPermanentDelete : sRawUri;
+        mRawTableDeleteCount++;
         int rows = mResolver.delete(uri, deleteWhere, deleteWhereArgs);
+        sReassemblyIndex.onRawTableDelete(deleteWhere, deleteWhereArgs);
         if (rows == 0) {
             loge("No rows were deleted from raw table!");
         } else if (DBG) {
@@ -1469,6 +1499,18 @@ public abstract class InboundSmsHandler extends StateMachine {
         }
     }
 
+    /**
+     * @return a selection matching the given number of row ids, e.g. {@code _id IN (?,?)}
+     */
+    static String getSelectionForRowIds(int count) {
+        StringBuilder selection = new StringBuilder(10 + 2 * count).append("_id IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) selection.append(',');
+            selection.append('?');
+        }
+        return selection.append(')').toString();
+    }
+
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Bundle handleSmsWhitelisting(ComponentName target, boolean bgActivityStartAllowed) {
         String pkgName;
@@ -1574,6 +1616,7 @@ public abstract class InboundSmsHandler extends StateMachine {
         Cursor cursor = null;
         try {
             // Check for duplicate message segments
+            mRawTableQueryCount++;
             cursor = mResolver.query(sRawUri, PDU_DELETED_FLAG_PROJECTION, exactMatchQuery.first,
                     exactMatchQuery.second, null);
 
@@ -1616,10 +1659,16 @@ public abstract class InboundSmsHandler extends StateMachine {
         // on top of that: if there is a message segment that conflicts this new one (may not be an
         // exact match), replace the old message segment with this one.
         if (tracker.getMessageCount() > 1) {
+            if (!sReassemblyIndex.mayContainSegment(tracker)) {
+                // No undeleted segment with this sequence number is in the raw table.
+                mRawTableQueriesAvoided++;
+                return false;
+            }
             Pair<String, String[]> inexactMatchQuery = tracker.getInexactMatchDupDetectQuery();
             cursor = null;
             try {
                 // Check for duplicate message segments
+                mRawTableQueryCount++;
                 cursor = mResolver.query(sRawUri, PDU_DELETED_FLAG_PROJECTION,
                         inexactMatchQuery.first, inexactMatchQuery.second, null);
 
@@ -1632,6 +1681,7 @@ public abstract class InboundSmsHandler extends StateMachine {
                     // delete the old message segment permanently
                     deleteFromRawTable(inexactMatchQuery.first, inexactMatchQuery.second,
                             DELETE_PERMANENTLY);
+                    sReassemblyIndex.removeSegment(tracker);
                     logWithLocalLog("checkAndHandleDuplicate: Replacing duplicate message segment: "
                             + tracker);
                     logDupPduMismatch(cursor, tracker);
@@ -1692,8 +1742,12 @@ public abstract class InboundSmsHandler extends StateMachine {
             log("addTrackerToRawTable: adding content values to raw table: " + values.toString(),
                     tracker.getMessageId());
         }
+        mRawTableInsertCount++;
         Uri newUri = mResolver.insert(sRawUri, values);
         if (DBG) log("addTrackerToRawTable: URI of new row: " + newUri, tracker.getMessageId());
+        if (newUri != null) {
+            sReassemblyIndex.addSegment(tracker);
+        }
 
         try {
             long rowId = ContentUris.parseId(newUri);
@@ -2102,6 +2156,13 @@ public abstract class InboundSmsHandler extends StateMachine {
         if (mCellBroadcastServiceManager != null) {
             mCellBroadcastServiceManager.dump(fd, pw, args);
         }
+        pw.println("Raw table: queries=" + mRawTableQueryCount
+                + " inserts=" + mRawTableInsertCount
+                + " deletes=" + mRawTableDeleteCount
+                + " queriesAvoided=" + mRawTableQueriesAvoided);
+        sReassemblyIndex.dump(pw);
+        BlockChecker.dump(pw);
+        VisualVoicemailSmsFilter.dump(pw);
         pw.println("mLocalLog:");
         pw.increaseIndent();
         mLocalLog.dump(fd, pw, args);
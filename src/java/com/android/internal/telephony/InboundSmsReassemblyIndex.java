@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.util.ArrayMap;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.telephony.Rlog;
+
+import java.util.Objects;
+
+/**
+ * In-memory mirror of the undeleted multi-part segments stored in the SmsProvider raw table.
+ *
+ * <p>Segments are grouped the same way as {@link InboundSmsTracker#getQueryForSegments()}, i.e.
+ * by address, reference number, message count and whether the segment is a 3GPP2 WAP PDU, so
+ * that {@link InboundSmsHandler} can tell that a message is still incomplete, or that a segment
+ * has no undeleted duplicate, without querying the provider for every received part.
+ *
+ * <p>The raw table is shared by all inbound SMS handlers in the phone process, so a single
+ * instance is shared as well. The index may over-count (e.g. after
+ * {@link SmsBroadcastUndelivered} deletes stale segments), in which case callers fall back to
+ * the provider, but it must never under-count. It is therefore rebuilt from the raw table when
+ * a handler leaves its startup state, and every insert and delete done by the handlers is
+ * applied to it after the provider operation.
+ */
+public class InboundSmsReassemblyIndex {
+    private static final String TAG = "InboundSmsReassemblyIndex";
+
+    private static final String[] REBUILD_PROJECTION = {
+            "address",
+            "reference_number",
+            "count",
+            "sequence",
+            "destination_port"
+    };
+
+    /** Only undeleted multi-part segments are ever matched by the segment queries. */
+    private static final String REBUILD_SELECTION = "deleted=0 AND count>1";
+
+    /** Identifies the segments of one concatenated message. */
+    private static final class MessageKey {
+        private final String mAddress;
+        private final int mReferenceNumber;
+        private final int mCount;
+        private final boolean mIs3gpp2WapPdu;
+
+        MessageKey(String address, int referenceNumber, int count, boolean is3gpp2WapPdu) {
+            mAddress = address;
+            mReferenceNumber = referenceNumber;
+            mCount = count;
+            mIs3gpp2WapPdu = is3gpp2WapPdu;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MessageKey)) return false;
+            MessageKey that = (MessageKey) o;
+            return mReferenceNumber == that.mReferenceNumber && mCount == that.mCount
+                    && mIs3gpp2WapPdu == that.mIs3gpp2WapPdu
+                    && Objects.equals(mAddress, that.mAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAddress, mReferenceNumber, mCount, mIs3gpp2WapPdu);
+        }
+    }
+
+    /** Number of raw table rows per sequence number of one message. */
+    private static final class Segments {
+        private final SparseIntArray mRowsBySequence = new SparseIntArray();
+        private int mRows;
+    }
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final ArrayMap<MessageKey, Segments> mMessages = new ArrayMap<>();
+
+    /** False until the first successful rebuild, or after a failed one. */
+    @GuardedBy("mLock")
+    private boolean mValid;
+
+    @GuardedBy("mLock")
+    private int mRebuildCount;
+
+    @GuardedBy("mLock")
+    private int mLastRebuildRows;
+
+    private static MessageKey keyOf(@NonNull InboundSmsTracker tracker) {
+        return new MessageKey(tracker.getAddress(), tracker.getReferenceNumber(),
+                tracker.getMessageCount(), tracker.is3gpp2WapPdu());
+    }
+
+    /**
+     * Reload the index from the raw table. If the table cannot be read, the index is marked
+     * invalid and every lookup defers to the provider until the next successful rebuild.
+     */
+    public void rebuild(@NonNull ContentResolver resolver) {
+        synchronized (mLock) {
+            mMessages.clear();
+            mValid = false;
+            int rows = 0;
+            try (Cursor cursor = resolver.query(InboundSmsHandler.sRawUri, REBUILD_PROJECTION,
+                    REBUILD_SELECTION, null, null)) {
+                if (cursor == null) {
+                    Rlog.e(TAG, "rebuild: null cursor");
+                    return;
+                }
+                while (cursor.moveToNext()) {
+                    int destPort = cursor.isNull(4) ? 0 : cursor.getInt(4);
+                    MessageKey key = new MessageKey(cursor.getString(0), cursor.getInt(1),
+                            cursor.getInt(2),
+                            (destPort & InboundSmsTracker.DEST_PORT_FLAG_3GPP2_WAP_PDU) != 0);
+                    addLocked(key, cursor.getInt(3));
+                    rows++;
+                }
+            } catch (SQLException e) {
+                Rlog.e(TAG, "rebuild: can't read raw table", e);
+                mMessages.clear();
+                return;
+            }
+            mValid = true;
+            mRebuildCount++;
+            mLastRebuildRows = rows;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void addLocked(MessageKey key, int sequence) {
+        Segments segments = mMessages.get(key);
+        if (segments == null) {
+            segments = new Segments();
+            mMessages.put(key, segments);
+        }
+        segments.mRowsBySequence.put(sequence, segments.mRowsBySequence.get(sequence) + 1);
+        segments.mRows++;
+    }
+
+    /** Record that the segment of the given tracker was inserted into the raw table. */
+    public void addSegment(@NonNull InboundSmsTracker tracker) {
+        if (tracker.getMessageCount() <= 1) return;
+        synchronized (mLock) {
+            addLocked(keyOf(tracker), tracker.getSequenceNumber());
+        }
+    }
+
+    /**
+     * Record that all undeleted raw table rows with the sequence number of the given tracker were
+     * deleted, as done for {@link InboundSmsTracker#getInexactMatchDupDetectQuery()}.
+     */
+    public void removeSegment(@NonNull InboundSmsTracker tracker) {
+        if (tracker.getMessageCount() <= 1) return;
+        synchronized (mLock) {
+            MessageKey key = keyOf(tracker);
+            Segments segments = mMessages.get(key);
+            if (segments == null) return;
+            int sequence = tracker.getSequenceNumber();
+            segments.mRows -= segments.mRowsBySequence.get(sequence);
+            segments.mRowsBySequence.delete(sequence);
+            if (segments.mRows <= 0) {
+                mMessages.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Apply a raw table delete to the index. Only deletes that select every segment of a message
+     * (see {@link InboundSmsTracker#getQueryForSegments()}) affect the index; other selections
+     * only ever match single-part rows.
+     */
+    public void onRawTableDelete(String where, String[] whereArgs) {
+        boolean is3gpp2WapPdu;
+        if (InboundSmsTracker.SELECT_BY_REFERENCE.equals(where)) {
+            is3gpp2WapPdu = false;
+        } else if (InboundSmsTracker.SELECT_BY_REFERENCE_3GPP2WAP.equals(where)) {
+            is3gpp2WapPdu = true;
+        } else {
+            return;
+        }
+        if (whereArgs == null || whereArgs.length < 3) return;
+        MessageKey key;
+        try {
+            key = new MessageKey(whereArgs[0], Integer.parseInt(whereArgs[1]),
+                    Integer.parseInt(whereArgs[2]), is3gpp2WapPdu);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        synchronized (mLock) {
+            mMessages.remove(key);
+        }
+    }
+
+    /**
+     * @return the number of undeleted raw table rows belonging to the message of the given
+     * tracker, or -1 if the index is not valid and the caller must query the provider.
+     */
+    public int getSegmentCount(@NonNull InboundSmsTracker tracker) {
+        synchronized (mLock) {
+            if (!mValid) return -1;
+            Segments segments = mMessages.get(keyOf(tracker));
+            return segments == null ? 0 : segments.mRows;
+        }
+    }
+
+    /**
+     * @return false only if the raw table is known to hold no undeleted row with the same
+     * message and sequence number as the given tracker.
+     */
+    public boolean mayContainSegment(@NonNull InboundSmsTracker tracker) {
+        synchronized (mLock) {
+            if (!mValid) return true;
+            Segments segments = mMessages.get(keyOf(tracker));
+            return segments != null
+                    && segments.mRowsBySequence.get(tracker.getSequenceNumber()) > 0;
+        }
+    }
+
+    @VisibleForTesting
+    public int getMessageCount() {
+        synchronized (mLock) {
+            return mMessages.size();
+        }
+    }
+
+    /** Dump the state of the index. */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("InboundSmsReassemblyIndex: valid=" + mValid
+                    + " messages=" + mMessages.size()
+                    + " rebuilds=" + mRebuildCount
+                    + " lastRebuildRows=" + mLastRebuildRows);
+        }
+    }
+}
@@ -65,6 +65,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.IntStream;
 
 /**
@@ -192,6 +193,8 @@ public class NetworkTypeController extends StateMachine {
 
     @NonNull private Map<String, OverrideTimerRule> mOverrideTimerRules = new HashMap<>();
     @NonNull private String mLteEnhancedPattern = "";
+    /** mLteEnhancedPattern compiled at config time, or null if empty or invalid. */
+    @Nullable private Pattern mLteEnhancedCompiledPattern;
     @Annotation.OverrideNetworkType private int mOverrideNetworkType;
     private boolean mIsPhysicalChannelConfigOn;
     private boolean mIsPrimaryTimerActive;
@@ -233,6 +236,11 @@ public class NetworkTypeController extends StateMachine {
     private int mRatchetedNrBandwidths = 0;
     private int mLastAnchorNrCellId = PhysicalChannelConfig.PHYSICAL_CELL_ID_UNKNOWN;
     private boolean mDoesPccListIndicateIdle = false;
+    /**
+     * Copy of the last physical channel configs fully applied to the ratcheted PCC fields, or
+     * null if the fields may have been changed since. Applying the same configs again is a no-op.
+     */
+    @Nullable private List<PhysicalChannelConfig> mLastAppliedPhysicalChannelConfigs;
 
     /**
      * NetworkTypeController constructor.
@@ -304,7 +312,12 @@ public class NetworkTypeController extends StateMachine {
         mPhone.registerForPhysicalChannelConfig(getHandler(),
                 EVENT_PHYSICAL_CHANNEL_CONFIGS_CHANGED, null);
         mPhone.getServiceStateTracker().registerForServiceStateChanged(getHandler(),
-                EVENT_SERVICE_STATE_CHANGED, null);
+                EVENT_SERVICE_STATE_CHANGED, null,
+                ServiceStateTracker.SERVICE_STATE_FIELD_DATA_REGISTRATION
+                        | ServiceStateTracker.SERVICE_STATE_FIELD_ROAMING
+                        | ServiceStateTracker.SERVICE_STATE_FIELD_OPERATOR
+                        | ServiceStateTracker.SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE
+                        | ServiceStateTracker.SERVICE_STATE_FIELD_CELL_BANDWIDTHS);
         mIsPhysicalChannelConfig16Supported = mPhone.getContext().getSystemService(
                 TelephonyManager.class).isRadioInterfaceCapabilitySupported(
                 TelephonyManager.CAPABILITY_PHYSICAL_CHANNEL_CONFIG_1_6_SUPPORTED);
@@ -345,6 +358,14 @@ public class NetworkTypeController extends StateMachine {
         }
         mLteEnhancedPattern = config.getString(
                 CarrierConfigManager.KEY_SHOW_CARRIER_DATA_ICON_PATTERN_STRING);
+        mLteEnhancedCompiledPattern = null;
+        if (!TextUtils.isEmpty(mLteEnhancedPattern)) {
+            try {
+                mLteEnhancedCompiledPattern = Pattern.compile(mLteEnhancedPattern);
+            } catch (PatternSyntaxException e) {
+                loge("Invalid LTE enhanced pattern " + mLteEnhancedPattern + ": " + e);
+            }
+        }
         mIsTimerResetEnabledForLegacyStateRrcIdle = config.getBoolean(
                 CarrierConfigManager.KEY_NR_TIMERS_RESET_IF_NON_ENDC_AND_RRC_IDLE_BOOL);
         mIsTimerResetEnabledOnPlmnChanges = config.getBoolean(
@@ -380,6 +401,8 @@ public class NetworkTypeController extends StateMachine {
         String overrideSecondaryTimerRule = config.getString(
                 CarrierConfigManager.KEY_5G_ICON_DISPLAY_SECONDARY_GRACE_PERIOD_STRING);
         createTimerRules(nrIconConfiguration, overrideTimerRule, overrideSecondaryTimerRule);
+        // The PCC fields depend on the carrier config, so always apply the configs again.
+        mLastAppliedPhysicalChannelConfigs = null;
         updatePhysicalChannelConfigs(
                 mPhone.getServiceStateTracker().getPhysicalChannelConfigList());
         if (isUsingPhysicalChannelConfigForRrcDetection()) {
@@ -546,37 +569,33 @@ public class NetworkTypeController extends StateMachine {
             return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
         }
         // Icon display keys in order of priority
-        List<String> keys = new ArrayList<>();
         if (isNrSa) {
-            if (isNrAdvanced()) {
-                keys.add(STATE_CONNECTED_NR_ADVANCED);
-            }
-        } else {
-            switch (mServiceState.getNrState()) {
-                case NetworkRegistrationInfo.NR_STATE_CONNECTED:
-                    if (isNrAdvanced()) {
-                        keys.add(STATE_CONNECTED_NR_ADVANCED);
+            return isNrAdvanced() ? getOverrideType(STATE_CONNECTED_NR_ADVANCED)
+                    : TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+        }
+        switch (mServiceState.getNrState()) {
+            case NetworkRegistrationInfo.NR_STATE_CONNECTED:
+                if (isNrAdvanced()) {
+                    int type = getOverrideType(STATE_CONNECTED_NR_ADVANCED);
+                    if (type != TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE) {
+                        return type;
                     }
-                    keys.add(STATE_CONNECTED);
-                    break;
-                case NetworkRegistrationInfo.NR_STATE_NOT_RESTRICTED:
-                    keys.add(isPhysicalLinkActive() ? STATE_NOT_RESTRICTED_RRC_CON
-                            : STATE_NOT_RESTRICTED_RRC_IDLE);
-                    break;
-                case NetworkRegistrationInfo.NR_STATE_RESTRICTED:
-                    keys.add(STATE_RESTRICTED);
-                    break;
-            }
+                }
+                return getOverrideType(STATE_CONNECTED);
+            case NetworkRegistrationInfo.NR_STATE_NOT_RESTRICTED:
+                return getOverrideType(isPhysicalLinkActive() ? STATE_NOT_RESTRICTED_RRC_CON
+                        : STATE_NOT_RESTRICTED_RRC_IDLE);
+            case NetworkRegistrationInfo.NR_STATE_RESTRICTED:
+                return getOverrideType(STATE_RESTRICTED);
+            default:
+                return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
         }
+    }
 
-        for (String key : keys) {
-            OverrideTimerRule rule = mOverrideTimerRules.get(key);
-            if (rule != null && rule.mOverrideType
-                    != TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE) {
-                return rule.mOverrideType;
-            }
-        }
-        return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+    private @Annotation.OverrideNetworkType int getOverrideType(@NonNull String state) {
+        OverrideTimerRule rule = mOverrideTimerRules.get(state);
+        return rule == null ? TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE
+                : rule.mOverrideType;
     }
 
     private @Annotation.OverrideNetworkType int getLteDisplayType() {
@@ -605,10 +624,10 @@ public class NetworkTypeController extends StateMachine {
     }
 
     private boolean isLteEnhancedAvailable() {
-        if (TextUtils.isEmpty(mLteEnhancedPattern)) {
+        if (mLteEnhancedCompiledPattern == null) {
             return false;
         }
-        Pattern stringPattern = Pattern.compile(mLteEnhancedPattern);
+        Pattern stringPattern = mLteEnhancedCompiledPattern;
         for (String opName : new String[] {mServiceState.getOperatorAlphaLongRaw(),
                 mServiceState.getOperatorAlphaShortRaw()}) {
             if (!TextUtils.isEmpty(opName)) {
@@ -695,6 +714,7 @@ public class NetworkTypeController extends StateMachine {
                     mLastAnchorNrCellId = PhysicalChannelConfig.PHYSICAL_CELL_ID_UNKNOWN;
                     mDoesPccListIndicateIdle = false;
                     mPhysicalChannelConfigs = null;
+                    mLastAppliedPhysicalChannelConfigs = null;
                     transitionTo(mLegacyState);
                     break;
                 case EVENT_PREFERRED_NETWORK_MODE_CHANGED:
@@ -1266,6 +1286,12 @@ public class NetworkTypeController extends StateMachine {
 
     private void updatePhysicalChannelConfigs(List<PhysicalChannelConfig> physicalChannelConfigs) {
         boolean isPccListEmpty = physicalChannelConfigs == null || physicalChannelConfigs.isEmpty();
+        if (!isPccListEmpty && physicalChannelConfigs.equals(mLastAppliedPhysicalChannelConfigs)) {
+            // Modems often report the same configs again, which leaves the PCC fields unchanged.
+            if (DBG) log("Physical channel configs unchanged: " + physicalChannelConfigs);
+            return;
+        }
+        mLastAppliedPhysicalChannelConfigs = null;
         if (isPccListEmpty && isUsingPhysicalChannelConfigForRrcDetection()) {
             // Clear mPrimaryCellChangedWhileIdle to allow later potential one-off PCI change.
             // Update link status to be DORMANT, but keep ratcheted bands.
@@ -1342,6 +1368,9 @@ public class NetworkTypeController extends StateMachine {
         mLastAnchorNrCellId = anchorNrCellId;
         mPhysicalChannelConfigs = physicalChannelConfigs;
         mDoesPccListIndicateIdle = false;
+        if (!isPccListEmpty) {
+            mLastAppliedPhysicalChannelConfigs = new ArrayList<>(physicalChannelConfigs);
+        }
         if (DBG) {
             log("Physical channel configs updated: anchorNrCell=" + mLastAnchorNrCellId
                     + ", nrBandwidths=" + mRatchetedNrBandwidths + ", nrBands=" +  mRatchetedNrBands
@@ -1668,9 +1697,12 @@ public class NetworkTypeController extends StateMachine {
             }
             return false;
         }
-        Set<Integer> intersection = new HashSet<>(mAdditionalNrAdvancedBands);
-        intersection.retainAll(bands);
-        return !intersection.isEmpty();
+        for (int band : bands) {
+            if (mAdditionalNrAdvancedBands.contains(band)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean isLte(int rat) {
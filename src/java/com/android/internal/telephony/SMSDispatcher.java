@@ -85,6 +85,7 @@ import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import com.android.internal.R;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.GsmAlphabet.TextEncodingDetails;
 import com.android.internal.telephony.analytics.TelephonyAnalytics;
@@ -191,6 +192,24 @@ public abstract class SMSDispatcher extends Handler {
     protected final TelephonyManager mTelephonyManager;
     protected final LocalLog mLocalLog = new LocalLog(16);
     protected final LocalLog mSmsOutgoingErrorCodes = new LocalLog(10);
+    /** End-to-end latency of recently completed multi-part messages. */
+    private final LocalLog mMultipartLatencyLog = new LocalLog(10);
+
+    /**
+     * Send latency statistics, updated from the handler thread and from the ImsService callback
+     * binder thread.
+     */
+    private final Object mSendLatencyLock = new Object();
+    @GuardedBy("mSendLatencyLock")
+    private int mCompletedSinglePartCount;
+    @GuardedBy("mSendLatencyLock")
+    private long mTotalSinglePartLatencyMs;
+    @GuardedBy("mSendLatencyLock")
+    private int mCompletedMultipartCount;
+    @GuardedBy("mSendLatencyLock")
+    private long mTotalMultipartLatencyMs;
+    @GuardedBy("mSendLatencyLock")
+    private long mMaxMultipartLatencyMs;
 
     /** Maximum number of times to retry sending a failed SMS. */
     protected static final int MAX_SEND_RETRIES = 3;
@@ -1055,6 +1074,7 @@ public abstract class SMSDispatcher extends Handler {
                 mSmsDispatchersController.putDeliveryPendingTracker(tracker);
             }
             tracker.onSent(mContext);
+            onMessageSendCompleted(tracker, true /* success */);
             mPhone.notifySmsSent(tracker.mDestAddress);
             mSmsDispatchersController.notifySmsSent(tracker, false,
                 tracker.isSinglePartOrLastPart(), true /*success*/);
@@ -1112,6 +1132,7 @@ public abstract class SMSDispatcher extends Handler {
                     mPhone.getServiceState().getRilDataRadioTechnology() !=
                     ServiceState.RIL_RADIO_TECHNOLOGY_NR) {
                 tracker.onFailed(mContext, getNotInServiceError(ss), NO_ERROR_CODE);
+                onMessageSendCompleted(tracker, false /* success */);
                 notifySmsSentFailedToEmergencyStateTracker(tracker, false);
                 mPhone.getSmsStats().onOutgoingSms(
                         tracker.mImsRetry > 0 /* isOverIms */,
@@ -1175,6 +1196,7 @@ public abstract class SMSDispatcher extends Handler {
             } else {
                 int errorCode = (smsResponse != null) ? smsResponse.mErrorCode : NO_ERROR_CODE;
                 tracker.onFailed(mContext, error, errorCode);
+                onMessageSendCompleted(tracker, false /* success */);
                 notifySmsSentFailedToEmergencyStateTracker(tracker, false);
                 mPhone.getSmsStats().onOutgoingSms(
                         tracker.mImsRetry > 0 /* isOverIms */,
@@ -2493,6 +2515,9 @@ public abstract class SMSDispatcher extends Handler {
         // Reference to states of a multipart message that this part belongs to
         private AtomicInteger mUnsentPartCount;
         private AtomicBoolean mAnyPartFailed;
+        // Whether this part was the single part or the last part of a multipart message to get
+        // a final result, as decided when the unsent part count was decremented
+        private boolean mCompletedMessage;
         // The full message content of a single part message
         // or a multipart message that this part belongs to
         private String mFullMessageText;
@@ -2670,6 +2695,18 @@ public abstract class SMSDispatcher extends Handler {
             return mUnsentPartCount != null ? (mUnsentPartCount.get() == 0) : true;
         }
 
+        /**
+         * Count this part as no longer unsent.
+         *
+         * @return whether this is a single part message or the last part of a multipart message,
+         *         taken from the decremented count so that parts completing concurrently cannot
+         *         both see themselves as the last part
+         */
+        private boolean onPartCompleted() {
+            mCompletedMessage = mUnsentPartCount == null || mUnsentPartCount.decrementAndGet() == 0;
+            return mCompletedMessage;
+        }
+
         /**
          * Persist a sent SMS if required:
          * 1. It is a text message
@@ -2755,10 +2792,7 @@ public abstract class SMSDispatcher extends Handler {
                 mAnyPartFailed.set(true);
             }
             // is single part or last part of multipart message
-            boolean isSinglePartOrLastPart = true;
-            if (mUnsentPartCount != null) {
-                isSinglePartOrLastPart = mUnsentPartCount.decrementAndGet() == 0;
-            }
+            boolean isSinglePartOrLastPart = onPartCompleted();
             if (isSinglePartOrLastPart) {
                 persistOrUpdateMessage(context, Sms.MESSAGE_TYPE_FAILED, errorCode);
             }
@@ -2828,10 +2862,7 @@ public abstract class SMSDispatcher extends Handler {
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         public void onSent(Context context) {
             // is single part or last part of multipart message
-            boolean isSinglePartOrLastPart = true;
-            if (mUnsentPartCount != null) {
-                isSinglePartOrLastPart = mUnsentPartCount.decrementAndGet() == 0;
-            }
+            boolean isSinglePartOrLastPart = onPartCompleted();
             if (isSinglePartOrLastPart) {
                 int messageType = Sms.MESSAGE_TYPE_SENT;
                 if (mAnyPartFailed != null && mAnyPartFailed.get()) {
@@ -3127,6 +3158,39 @@ public abstract class SMSDispatcher extends Handler {
         }
     }
 
+    /**
+     * Record the end-to-end send latency of a message once its last part has completed. The
+     * latency is measured from the creation of the message's trackers. All the parts of a
+     * multi-part message are handed to the transport back to back by {@link #sendRawPdu}, so
+     * this mostly reflects the transport and any per-part retries.
+     *
+     * Must be called after {@link SmsTracker#onSent} or {@link SmsTracker#onFailed}.
+     *
+     * @param tracker the tracker of the part that just completed
+     * @param success whether that part was sent successfully
+     */
+    protected void onMessageSendCompleted(SmsTracker tracker, boolean success) {
+        if (!tracker.mCompletedMessage) return;
+        // The message only succeeded if none of its other parts failed.
+        success = success && (tracker.mAnyPartFailed == null || !tracker.mAnyPartFailed.get());
+        long latencyMs = tracker.getInterval();
+        int partCount = (tracker.mSmsHeader != null && tracker.mSmsHeader.concatRef != null)
+                ? tracker.mSmsHeader.concatRef.msgCount : 1;
+        synchronized (mSendLatencyLock) {
+            if (partCount <= 1) {
+                mCompletedSinglePartCount++;
+                mTotalSinglePartLatencyMs += latencyMs;
+                return;
+            }
+            mCompletedMultipartCount++;
+            mTotalMultipartLatencyMs += latencyMs;
+            mMaxMultipartLatencyMs = Math.max(mMaxMultipartLatencyMs, latencyMs);
+        }
+        mMultipartLatencyLog.log("parts=" + partCount + " latencyMs=" + latencyMs
+                + " lastPartRetries=" + tracker.mRetryCount + " success=" + success + " "
+                + SmsController.formatCrossStackMessageId(tracker.mMessageId));
+    }
+
     /**
      * Dump local logs
      */
@@ -3145,6 +3209,20 @@ public abstract class SMSDispatcher extends Handler {
         mSmsOutgoingErrorCodes.dump(fd, pw, args);
         pw.decreaseIndent();
 
+        synchronized (mSendLatencyLock) {
+            pw.println("Send latency: singlePart count=" + mCompletedSinglePartCount
+                    + " avgMs=" + (mCompletedSinglePartCount == 0 ? 0
+                            : mTotalSinglePartLatencyMs / mCompletedSinglePartCount)
+                    + ", multipart count=" + mCompletedMultipartCount
+                    + " avgMs=" + (mCompletedMultipartCount == 0 ? 0
+                            : mTotalMultipartLatencyMs / mCompletedMultipartCount)
+                    + " maxMs=" + mMaxMultipartLatencyMs);
+        }
+        pw.println("mMultipartLatencyLog:");
+        pw.increaseIndent();
+        mMultipartLatencyLog.dump(fd, pw, args);
+        pw.decreaseIndent();
+
         pw.decreaseIndent();
     }
 }
@@ -89,6 +89,7 @@ import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 
 import com.android.internal.R;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.cdma.CdmaSubscriptionSourceManager;
 import com.android.internal.telephony.cdma.EriInfo;
@@ -130,6 +131,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -203,6 +205,15 @@ public class ServiceStateTracker extends Handler {
      */
     @VisibleForTesting
     public int[] mPollingContext;
+    // Elapsed realtime when the poll commands of mPollingContext were issued, or 0 if none.
+    private long mPollStartTimeMillis;
+    // Latency stats {count, total, max} in millis of each poll response, keyed by the poll event,
+    // plus the whole poll keyed by EVENT_POLL_STATE_REQUEST.
+    private final SparseArray<long[]> mPollLatencyStats = new SparseArray<>();
+    // Number of polls replaced by a newer poll before all of their responses arrived.
+    private int mSupersededPollCount;
+    // Number of queued poll requests merged into a later queued request.
+    private int mCoalescedPollRequestCount;
     @UnsupportedAppUsage
     private boolean mDesiredPowerState;
 
@@ -222,6 +233,12 @@ public class ServiceStateTracker extends Handler {
     private RegistrantList mNetworkAttachedRegistrants = new RegistrantList();
     private RegistrantList mNetworkDetachedRegistrants = new RegistrantList();
     private RegistrantList mServiceStateChangedRegistrants = new RegistrantList();
+    // Registrants only interested in some service state fields.
+    @GuardedBy("mServiceStateFieldsChangedRegistrants")
+    private final List<ServiceStateFieldsRegistrant> mServiceStateFieldsChangedRegistrants =
+            new ArrayList<>();
+    // Number of service state changed notifications not sent as no field of interest changed.
+    private int mSuppressedServiceStateNotificationCount;
     private RegistrantList mPsRestrictEnabledRegistrants = new RegistrantList();
     private RegistrantList mPsRestrictDisabledRegistrants = new RegistrantList();
     private RegistrantList mImsCapabilityChangedRegistrants = new RegistrantList();
@@ -319,6 +336,42 @@ public class ServiceStateTracker extends Handler {
     // Show PLMN only and only if this bit is set.
     public static final int CARRIER_NAME_DISPLAY_BITMASK_SHOW_PLMN = 1 << 1;
 
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = {"SERVICE_STATE_FIELD_"},
+            value = {SERVICE_STATE_FIELD_VOICE_REGISTRATION,
+                    SERVICE_STATE_FIELD_DATA_REGISTRATION,
+                    SERVICE_STATE_FIELD_ROAMING,
+                    SERVICE_STATE_FIELD_OPERATOR,
+                    SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE,
+                    SERVICE_STATE_FIELD_CELL_BANDWIDTHS,
+                    SERVICE_STATE_FIELD_OTHER},
+            flag = true)
+    public @interface ServiceStateField {}
+
+    // Voice registration state, voice RAT or any CS registration info changed.
+    public static final int SERVICE_STATE_FIELD_VOICE_REGISTRATION = 1 << 0;
+
+    // Data registration state or any PS registration info of any transport changed.
+    public static final int SERVICE_STATE_FIELD_DATA_REGISTRATION = 1 << 1;
+
+    // Voice or data roaming state or roaming type changed.
+    public static final int SERVICE_STATE_FIELD_ROAMING = 1 << 2;
+
+    // Operator names or numeric changed.
+    public static final int SERVICE_STATE_FIELD_OPERATOR = 1 << 3;
+
+    // NR frequency range changed.
+    public static final int SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE = 1 << 4;
+
+    // Cell bandwidths changed.
+    public static final int SERVICE_STATE_FIELD_CELL_BANDWIDTHS = 1 << 5;
+
+    // Any other field changed.
+    public static final int SERVICE_STATE_FIELD_OTHER = 1 << 6;
+
+    // Any field changed.
+    public static final int SERVICE_STATE_FIELD_ALL = (1 << 7) - 1;
+
     private List<Message> mPendingCellInfoRequests = new LinkedList<>();
     // @GuardedBy("mPendingCellInfoRequests")
     private boolean mIsPendingCellInfoRequest = false;
@@ -1706,23 +1759,25 @@ public class ServiceStateTracker extends Handler {
                                 + (list == null ? "" : ", list.size()=" + list.size()));
                     }
                     mLastPhysicalChannelConfigList = list;
-                    boolean hasChanged = false;
+                    int changedFields = 0;
                     if (updateNrStateFromPhysicalChannelConfigs(list, mSS)) {
                         mNrStateChangedRegistrants.notifyRegistrants();
-                        hasChanged = true;
+                        changedFields |= SERVICE_STATE_FIELD_DATA_REGISTRATION;
                     }
                     if (updateNrFrequencyRangeFromPhysicalChannelConfigs(list, mSS)) {
                         mNrFrequencyChangedRegistrants.notifyRegistrants();
-                        hasChanged = true;
+                        changedFields |= SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE;
                     }
-                    hasChanged |= RatRatcheter
-                            .updateBandwidths(getBandwidthsFromConfigs(list), mSS);
+                    if (RatRatcheter.updateBandwidths(getBandwidthsFromConfigs(list), mSS)) {
+                        changedFields |= SERVICE_STATE_FIELD_CELL_BANDWIDTHS;
+                    }
+                    boolean hasChanged = changedFields != 0;
 
                     mPhone.notifyPhysicalChannelConfig(list);
                     // Notify NR frequency, NR connection status or bandwidths changed.
                     if (hasChanged) {
                         mPhone.notifyServiceStateChanged(mPhone.getServiceState());
-                        mServiceStateChangedRegistrants.notifyRegistrants();
+                        notifyServiceStateChangedRegistrants(changedFields);
                         TelephonyMetrics.getInstance().writeServiceStateChanged(
                                 mPhone.getPhoneId(), mSS);
                         mPhone.getVoiceCallSessionStats().onServiceStateChanged(mSS);
@@ -1751,6 +1806,11 @@ public class ServiceStateTracker extends Handler {
                 break;
 
             case EVENT_POLL_STATE_REQUEST:
+                if (hasMessages(EVENT_POLL_STATE_REQUEST)) {
+                    // A later request will poll again, so there is no need to poll twice.
+                    mCoalescedPollRequestCount++;
+                    break;
+                }
                 pollStateInternal(false);
                 break;
 
@@ -1965,6 +2025,8 @@ public class ServiceStateTracker extends Handler {
         // Ignore stale requests from last poll
         if (ar.userObj != mPollingContext) return;
 
+        recordPollLatency(what);
+
         if (ar.exception != null) {
             CommandException.Error err = null;
 
@@ -2112,11 +2174,41 @@ public class ServiceStateTracker extends Handler {
                             + ", mDefaultRoamingIndicator= " + mDefaultRoamingIndicator);
                 }
             }
+            recordPollLatency(EVENT_POLL_STATE_REQUEST);
+            mPollStartTimeMillis = 0;
             pollStateDone();
         }
 
     }
 
+    /**
+     * Record the time elapsed since the poll commands were issued for the given poll event.
+     */
+    private void recordPollLatency(int what) {
+        if (mPollStartTimeMillis == 0) return;
+        long latency = SystemClock.elapsedRealtime() - mPollStartTimeMillis;
+        long[] stats = mPollLatencyStats.get(what);
+        if (stats == null) {
+            stats = new long[3];
+            mPollLatencyStats.put(what, stats);
+        }
+        stats[0]++;
+        stats[1] += latency;
+        stats[2] = Math.max(stats[2], latency);
+    }
+
+    private static String pollEventToString(int what) {
+        switch (what) {
+            case EVENT_POLL_STATE_REQUEST: return "POLL";
+            case EVENT_POLL_STATE_OPERATOR: return "OPERATOR";
+            case EVENT_POLL_STATE_CS_CELLULAR_REGISTRATION: return "CS_CELLULAR_REGISTRATION";
+            case EVENT_POLL_STATE_PS_CELLULAR_REGISTRATION: return "PS_CELLULAR_REGISTRATION";
+            case EVENT_POLL_STATE_PS_IWLAN_REGISTRATION: return "PS_IWLAN_REGISTRATION";
+            case EVENT_POLL_STATE_NETWORK_SELECTION_MODE: return "NETWORK_SELECTION_MODE";
+            default: return "UNKNOWN(" + what + ")";
+        }
+    }
+
     /**
      * Set roaming state when cdmaRoaming is true and ons is different from spn
      * @param cdmaRoaming TS 27.007 7.2 CREG registered roaming
@@ -3347,7 +3439,11 @@ public class ServiceStateTracker extends Handler {
     }
 
     private void pollStateInternal(boolean modemTriggered) {
+        if (mPollingContext != null && mPollingContext[0] > 0) {
+            mSupersededPollCount++;
+        }
         mPollingContext = new int[1];
+        mPollStartTimeMillis = 0;
 
         log("pollState: modemTriggered=" + modemTriggered + ", radioState=" + mCi.getRadioState());
 
@@ -3376,6 +3472,7 @@ public class ServiceStateTracker extends Handler {
 
     protected void issuePollCommands() {
         log("issuePollCommands");
+        mPollStartTimeMillis = SystemClock.elapsedRealtime();
         // Issue all poll-related commands at once then count down the responses, which
         // are allowed to arrive out-of-order
         mPollingContext[0]++;
@@ -3685,7 +3782,7 @@ public class ServiceStateTracker extends Handler {
         }
 
         if (!Objects.equals(mSS, mNewSS)) {
-            mServiceStateChangedRegistrants.notifyRegistrants();
+            notifyServiceStateChangedRegistrants(getServiceStateChangedFields(mSS, mNewSS));
         }
 
         ServiceState oldMergedSS = new ServiceState(mPhone.getServiceState());
@@ -5003,6 +5100,28 @@ public class ServiceStateTracker extends Handler {
         mServiceStateChangedRegistrants.addUnique(h, what, userobj);
     }
 
+    /**
+     * Register for service state changed event, only notified when any of the given fields
+     * changed.
+     *
+     * @param h handler to notify
+     * @param what what code of message when delivered
+     * @param userobj the user obj that will be passed back when notify
+     * @param fields the bitmask of {@link ServiceStateField} the handler is interested in
+     */
+    public void registerForServiceStateChanged(Handler h, int what, Object userobj,
+            @ServiceStateField int fields) {
+        synchronized (mServiceStateFieldsChangedRegistrants) {
+            // Only replace a previous registration of the same handler and what code, so that
+            // other registrations of the handler are kept.
+            mServiceStateFieldsChangedRegistrants.removeIf(r -> r.mWhat == what
+                    && r.mRegistrant.getHandler() == h);
+            mServiceStateFieldsChangedRegistrants.add(
+                    new ServiceStateFieldsRegistrant(new Registrant(h, what, userobj), what,
+                            fields));
+        }
+    }
+
     /**
      * Unregister for service state changed event.
      *
@@ -5010,6 +5129,112 @@ public class ServiceStateTracker extends Handler {
      */
     public void unregisterForServiceStateChanged(Handler h) {
         mServiceStateChangedRegistrants.remove(h);
+        synchronized (mServiceStateFieldsChangedRegistrants) {
+            mServiceStateFieldsChangedRegistrants.removeIf(r -> r.mRegistrant.getHandler() == h);
+        }
+    }
+
+    /**
+     * Notify the service state changed registrants interested in any of the changed fields.
+     *
+     * @param changedFields the bitmask of {@link ServiceStateField} changed
+     */
+    private void notifyServiceStateChangedRegistrants(@ServiceStateField int changedFields) {
+        mServiceStateChangedRegistrants.notifyRegistrants();
+        synchronized (mServiceStateFieldsChangedRegistrants) {
+            // Drop the registrants whose handler has been garbage collected.
+            mServiceStateFieldsChangedRegistrants.removeIf(
+                    r -> r.mRegistrant.getHandler() == null);
+            for (ServiceStateFieldsRegistrant r : mServiceStateFieldsChangedRegistrants) {
+                if ((r.mFields & changedFields) != 0) {
+                    r.mRegistrant.notifyRegistrant();
+                } else {
+                    mSuppressedServiceStateNotificationCount++;
+                }
+            }
+        }
+    }
+
+    /** A service state changed registrant with the fields it is interested in. */
+    private static final class ServiceStateFieldsRegistrant {
+        final Registrant mRegistrant;
+        final int mWhat;
+        @ServiceStateField final int mFields;
+
+        ServiceStateFieldsRegistrant(Registrant registrant, int what,
+                @ServiceStateField int fields) {
+            mRegistrant = registrant;
+            mWhat = what;
+            mFields = fields;
+        }
+    }
+
+    /**
+     * Get the fields changed between two service states.
+     *
+     * @param oldSS the old service state
+     * @param newSS the new service state
+     * @return the bitmask of {@link ServiceStateField} changed
+     */
+    @VisibleForTesting
+    public static @ServiceStateField int getServiceStateChangedFields(
+            @NonNull ServiceState oldSS, @NonNull ServiceState newSS) {
+        if (oldSS.equals(newSS)) return 0;
+
+        int fields = 0;
+        if (oldSS.getState() != newSS.getState()
+                || oldSS.getRilVoiceRadioTechnology() != newSS.getRilVoiceRadioTechnology()
+                || !oldSS.getNetworkRegistrationInfoListForDomain(NetworkRegistrationInfo.DOMAIN_CS)
+                        .equals(newSS.getNetworkRegistrationInfoListForDomain(
+                                NetworkRegistrationInfo.DOMAIN_CS))) {
+            fields |= SERVICE_STATE_FIELD_VOICE_REGISTRATION;
+        }
+        if (oldSS.getDataRegistrationState() != newSS.getDataRegistrationState()
+                || !oldSS.getNetworkRegistrationInfoListForDomain(NetworkRegistrationInfo.DOMAIN_PS)
+                        .equals(newSS.getNetworkRegistrationInfoListForDomain(
+                                NetworkRegistrationInfo.DOMAIN_PS))) {
+            fields |= SERVICE_STATE_FIELD_DATA_REGISTRATION;
+        }
+        if (oldSS.getVoiceRoaming() != newSS.getVoiceRoaming()
+                || oldSS.getDataRoaming() != newSS.getDataRoaming()
+                || oldSS.getVoiceRoamingType() != newSS.getVoiceRoamingType()
+                || oldSS.getDataRoamingType() != newSS.getDataRoamingType()) {
+            fields |= SERVICE_STATE_FIELD_ROAMING;
+        }
+        if (!TextUtils.equals(oldSS.getOperatorAlphaLong(), newSS.getOperatorAlphaLong())
+                || !TextUtils.equals(oldSS.getOperatorAlphaShort(), newSS.getOperatorAlphaShort())
+                || !TextUtils.equals(oldSS.getOperatorAlphaLongRaw(),
+                        newSS.getOperatorAlphaLongRaw())
+                || !TextUtils.equals(oldSS.getOperatorAlphaShortRaw(),
+                        newSS.getOperatorAlphaShortRaw())
+                || !TextUtils.equals(oldSS.getOperatorNumeric(), newSS.getOperatorNumeric())) {
+            fields |= SERVICE_STATE_FIELD_OPERATOR;
+        }
+        if (oldSS.getNrFrequencyRange() != newSS.getNrFrequencyRange()) {
+            fields |= SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE;
+        }
+        if (!Arrays.equals(oldSS.getCellBandwidths(), newSS.getCellBandwidths())) {
+            fields |= SERVICE_STATE_FIELD_CELL_BANDWIDTHS;
+        }
+
+        // Check the remaining fields by copying the fields compared above from the old state.
+        // Registration info only present in the new state is kept, so it is reported as other.
+        ServiceState rest = new ServiceState(newSS);
+        for (NetworkRegistrationInfo nri : oldSS.getNetworkRegistrationInfoList()) {
+            rest.addNetworkRegistrationInfo(nri);
+        }
+        rest.setVoiceRegState(oldSS.getState());
+        rest.setDataRegState(oldSS.getDataRegistrationState());
+        rest.setOperatorName(oldSS.getOperatorAlphaLong(), oldSS.getOperatorAlphaShort(),
+                oldSS.getOperatorNumeric());
+        rest.setOperatorAlphaLongRaw(oldSS.getOperatorAlphaLongRaw());
+        rest.setOperatorAlphaShortRaw(oldSS.getOperatorAlphaShortRaw());
+        rest.setNrFrequencyRange(oldSS.getNrFrequencyRange());
+        rest.setCellBandwidths(oldSS.getCellBandwidths());
+        if (!oldSS.equals(rest)) {
+            fields |= SERVICE_STATE_FIELD_OTHER;
+        }
+        return fields;
     }
 
     /**
@@ -5110,6 +5335,7 @@ public class ServiceStateTracker extends Handler {
     protected void cancelPollState() {
         // This will effectively cancel the rest of the poll requests.
         mPollingContext = new int[1];
+        mPollStartTimeMillis = 0;
     }
 
     /**
@@ -5292,6 +5518,16 @@ public class ServiceStateTracker extends Handler {
         pw.println(" mVoiceCapable=" + mVoiceCapable);
         pw.println(" mRestrictedState=" + mRestrictedState);
         pw.println(" mPollingContext=" + Arrays.toString(mPollingContext));
+        pw.println(" mSuppressedServiceStateNotificationCount="
+                + mSuppressedServiceStateNotificationCount);
+        pw.println(" mSupersededPollCount=" + mSupersededPollCount
+                + " mCoalescedPollRequestCount=" + mCoalescedPollRequestCount);
+        for (int i = 0; i < mPollLatencyStats.size(); i++) {
+            long[] stats = mPollLatencyStats.valueAt(i);
+            pw.println(" pollLatency " + pollEventToString(mPollLatencyStats.keyAt(i))
+                    + ": count=" + stats[0] + " avgMs=" + (stats[1] / stats[0])
+                    + " maxMs=" + stats[2]);
+        }
         pw.println(" mDesiredPowerState=" + mDesiredPowerState);
         pw.println(" mRestrictedState=" + mRestrictedState);
         pw.println(" mPendingRadioPowerOffAfterDataOff=" + mPendingRadioPowerOffAfterDataOff);
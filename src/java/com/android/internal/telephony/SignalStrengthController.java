@@ -29,6 +29,7 @@ import android.os.PersistableBundle;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.AnomalyReporter;
 import android.telephony.CarrierConfigManager;
@@ -47,6 +48,7 @@ import android.telephony.TelephonyManager;
 import android.util.LocalLog;
 import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.subscription.SubscriptionManagerService;
 import com.android.internal.telephony.util.ArrayUtils;
@@ -56,6 +58,7 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -152,6 +155,21 @@ public class SignalStrengthController extends Handler {
 
     private final AtomicBoolean mNTNConnected = new AtomicBoolean(false);
 
+    /** The signal thresholds parsed from the carrier config, or null if not parsed yet. */
+    @Nullable
+    private List<SignalThresholdInfo> mCarrierConfigSignalThresholdInfos;
+    /** Whether mCarrierConfigSignalThresholdInfos are parsed for non-terrestrial network. */
+    private boolean mCarrierConfigSignalThresholdInfosForNtn;
+    /** The reporting criteria last sent to the modem. */
+    @Nullable
+    private List<SignalThresholdInfo> mLastSignalThresholdInfos;
+    /** Times of the reporting criteria updates sent to the modem within the last hour. */
+    @NonNull
+    @GuardedBy("mReportingCriteriaUpdateTimes")
+    private final ArrayDeque<Long> mReportingCriteriaUpdateTimes = new ArrayDeque<>();
+    private int mReportingCriteriaUpdateCount;
+    private int mSkippedReportingCriteriaUpdateCount;
+
     public SignalStrengthController(@NonNull Phone phone) {
         mPhone = phone;
         mCi = mPhone.mCi;
@@ -301,6 +319,8 @@ public class SignalStrengthController extends Handler {
      * so that modem can start with default state before updated criteria is ready.
      */
     private void onReset() {
+        // The HAL version may be updated after the modem is connected.
+        mCarrierConfigSignalThresholdInfos = null;
         setDefaultSignalStrengthReportingCriteria();
     }
 
@@ -405,6 +425,23 @@ public class SignalStrengthController extends Handler {
      */
     @VisibleForTesting
     public void updateReportingCriteria() {
+        boolean isUsingNonTerrestrialNetwork = isUsingNonTerrestrialNetwork();
+        boolean isCarrierConfigParsed = false;
+        if (mCarrierConfigSignalThresholdInfos == null
+                || mCarrierConfigSignalThresholdInfosForNtn != isUsingNonTerrestrialNetwork) {
+            mCarrierConfigSignalThresholdInfos =
+                    getSignalThresholdInfosFromCarrierConfig(isUsingNonTerrestrialNetwork);
+            mCarrierConfigSignalThresholdInfosForNtn = isUsingNonTerrestrialNetwork;
+            isCarrierConfigParsed = true;
+        }
+        // Always send the criteria when the carrier config thresholds are changed, otherwise
+        // only when the consolidated criteria are changed.
+        consolidatedAndSetReportingCriteria(mCarrierConfigSignalThresholdInfos,
+                isCarrierConfigParsed);
+    }
+
+    private List<SignalThresholdInfo> getSignalThresholdInfosFromCarrierConfig(
+            boolean isUsingNonTerrestrialNetwork) {
         List<SignalThresholdInfo> signalThresholdInfos = new ArrayList<>();
 
         int[] gsmRssiThresholds = mCarrierConfig.getIntArray(
@@ -431,11 +468,11 @@ public class SignalStrengthController extends Handler {
                             true));
         }
 
-        int lteMeasurementEnabled = mCarrierConfig.getInt(isUsingNonTerrestrialNetwork()
+        int lteMeasurementEnabled = mCarrierConfig.getInt(isUsingNonTerrestrialNetwork
                         ? CarrierConfigManager.KEY_PARAMETERS_USED_FOR_NTN_LTE_SIGNAL_BAR_INT
                         : CarrierConfigManager.KEY_PARAMETERS_USED_FOR_LTE_SIGNAL_BAR_INT,
                 CellSignalStrengthLte.USE_RSRP);
-        int[] lteRsrpThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+        int[] lteRsrpThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork
                 ? CarrierConfigManager.KEY_NTN_LTE_RSRP_THRESHOLDS_INT_ARRAY
                 : CarrierConfigManager.KEY_LTE_RSRP_THRESHOLDS_INT_ARRAY);
         if (lteRsrpThresholds != null) {
@@ -449,7 +486,7 @@ public class SignalStrengthController extends Handler {
         }
 
         if (mPhone.getHalVersion(HAL_SERVICE_NETWORK).greaterOrEqual(RIL.RADIO_HAL_VERSION_1_5)) {
-            int[] lteRsrqThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+            int[] lteRsrqThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork
                     ? CarrierConfigManager.KEY_NTN_LTE_RSRQ_THRESHOLDS_INT_ARRAY :
                     CarrierConfigManager.KEY_LTE_RSRQ_THRESHOLDS_INT_ARRAY);
             if (lteRsrqThresholds != null) {
@@ -462,7 +499,7 @@ public class SignalStrengthController extends Handler {
                                 (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSRQ) != 0));
             }
 
-            int[] lteRssnrThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+            int[] lteRssnrThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork
                     ? CarrierConfigManager.KEY_NTN_LTE_RSSNR_THRESHOLDS_INT_ARRAY :
                     CarrierConfigManager.KEY_LTE_RSSNR_THRESHOLDS_INT_ARRAY);
             if (lteRssnrThresholds != null) {
@@ -527,7 +564,7 @@ public class SignalStrengthController extends Handler {
 
         }
 
-        consolidatedAndSetReportingCriteria(signalThresholdInfos);
+        return signalThresholdInfos;
     }
 
     private void setDefaultSignalStrengthReportingCriteria() {
@@ -599,11 +636,11 @@ public class SignalStrengthController extends Handler {
                             false));
         }
 
-        consolidatedAndSetReportingCriteria(signalThresholdInfos);
+        consolidatedAndSetReportingCriteria(signalThresholdInfos, true /* forceUpdate */);
     }
 
     private void consolidatedAndSetReportingCriteria(
-            @NonNull List<SignalThresholdInfo> signalThresholdInfos) {
+            @NonNull List<SignalThresholdInfo> signalThresholdInfos, boolean forceUpdate) {
         List<SignalThresholdInfo> consolidatedSignalThresholdInfos = new ArrayList<>(
                 signalThresholdInfos.size());
         for (SignalThresholdInfo signalThresholdInfo : signalThresholdInfos) {
@@ -637,12 +674,46 @@ public class SignalStrengthController extends Handler {
                             .setIsEnabled(isEnabledForSystem || isEnabledForAppRequest)
                             .build());
         }
+        if (!forceUpdate && consolidatedSignalThresholdInfos.equals(mLastSignalThresholdInfos)) {
+            mSkippedReportingCriteriaUpdateCount++;
+            return;
+        }
+        mLastSignalThresholdInfos = consolidatedSignalThresholdInfos;
         mCi.setSignalStrengthReportingCriteria(consolidatedSignalThresholdInfos, null);
+        recordReportingCriteriaUpdate();
 
         localLog("setSignalStrengthReportingCriteria consolidatedSignalThresholdInfos="
                         + consolidatedSignalThresholdInfos);
     }
 
+    private void recordReportingCriteriaUpdate() {
+        long now = SystemClock.elapsedRealtime();
+        mReportingCriteriaUpdateCount++;
+        synchronized (mReportingCriteriaUpdateTimes) {
+            mReportingCriteriaUpdateTimes.addLast(now);
+            while (now - mReportingCriteriaUpdateTimes.peekFirst()
+                    > TimeUnit.HOURS.toMillis(1)) {
+                mReportingCriteriaUpdateTimes.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Count the reporting criteria updates sent within the last hour without pruning the older
+     * ones, which is left to the handler thread, so that it is safe to call from dump().
+     */
+    private int getReportingCriteriaUpdateCountInLastHour(long now) {
+        int count = 0;
+        synchronized (mReportingCriteriaUpdateTimes) {
+            for (long time : mReportingCriteriaUpdateTimes) {
+                if (now - time <= TimeUnit.HOURS.toMillis(1)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     /**
      * Return the minimum hysteresis dB from all available sources:
      * - system default
@@ -822,6 +893,10 @@ public class SignalStrengthController extends Handler {
         pw.println(" mNrRsrpBoost=" + Arrays.toString(mNrRsrpBoost));
         pw.println(" mEarfcnPairListForRsrpBoost=" + mEarfcnPairListForRsrpBoost);
         pw.println(" mNrarfcnRangeListForRsrpBoost=" + mNrarfcnRangeListForRsrpBoost);
+        pw.println(" reportingCriteriaUpdates: total=" + mReportingCriteriaUpdateCount
+                + " lastHour="
+                + getReportingCriteriaUpdateCountInLastHour(SystemClock.elapsedRealtime())
+                + " skippedAsUnchanged=" + mSkippedReportingCriteriaUpdateCount);
         ipw.decreaseIndent();
         ipw.flush();
     }
@@ -1173,6 +1248,7 @@ public class SignalStrengthController extends Handler {
         if (slotIndex != mPhone.getPhoneId()) return;
 
         mCarrierConfig = getCarrierConfig();
+        mCarrierConfigSignalThresholdInfos = null;
         log("Carrier Config changed.");
 
         updateArfcnLists();
@@ -40,8 +40,10 @@ import com.android.internal.telephony.metrics.TelephonyMetrics;
 import com.android.internal.telephony.subscription.SubscriptionManagerService;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -167,6 +169,9 @@ public class SmsBroadcastUndelivered {
         HashMap<SmsReferenceKey, Integer> multiPartReceivedCount =
                 new HashMap<SmsReferenceKey, Integer>(4);
         HashSet<SmsReferenceKey> oldMultiPartMessages = new HashSet<SmsReferenceKey>(4);
+        // row ids of the segments seen for each multi-part message
+        HashMap<SmsReferenceKey, ArrayList<String>> multiPartRowIds =
+                new HashMap<SmsReferenceKey, ArrayList<String>>(4);
         Cursor cursor = null;
         try {
             // query only non-deleted ones
@@ -196,6 +201,9 @@ public class SmsBroadcastUndelivered {
                     broadcastSms(tracker);
                 } else {
                     SmsReferenceKey reference = new SmsReferenceKey(tracker);
+                    multiPartRowIds.computeIfAbsent(reference, k -> new ArrayList<>()).add(
+                            cursor.getString(PDU_PENDING_MESSAGE_PROJECTION_INDEX_MAPPING.get(
+                                    InboundSmsHandler.ID_COLUMN)));
                     Integer receivedCount = multiPartReceivedCount.get(reference);
                     if (receivedCount == null) {
                         multiPartReceivedCount.put(reference, 1);    // first segment seen
@@ -226,36 +234,26 @@ public class SmsBroadcastUndelivered {
             Phone phone = PhoneFactory.getPhone(0);
             int phoneId = 0;
 
-            // Delete old incomplete message segments
+            // Delete old incomplete message segments, batching the row ids of several messages
+            // into each provider call. Each batch holds whole messages, so that the dropped rows
+            // can still be attributed to their message when the whole batch is deleted.
+            List<SmsReferenceKey> batch = new ArrayList<>();
+            List<String> batchRowIds = new ArrayList<>();
             for (SmsReferenceKey message : oldMultiPartMessages) {
-                // delete permanently
-                int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
-                        message.getDeleteWhere(), message.getDeleteWhereArgs());
-                if (rows == 0) {
-                    Rlog.e(TAG, "No rows were deleted from raw table!");
-                } else if (DBG) {
-                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for incomplete "
-                            + message.mMessageCount + " part message");
-                }
-                // Update metrics with dropped SMS
-                if (rows > 0) {
-                    TelephonyMetrics metrics = TelephonyMetrics.getInstance();
-                    metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat, rows,
-                            message.mMessageCount);
-                    if (phone != null) {
-                        phone.getSmsStats().onDroppedIncomingMultipartSms(message.mIs3gpp2, rows,
-                                message.mMessageCount, TelephonyManager.from(context)
-                                        .isEmergencyNumber(message.mAddress));
-                        TelephonyAnalytics telephonyAnalytics = phone.getTelephonyAnalytics();
-                        if (telephonyAnalytics != null) {
-                            SmsMmsAnalytics smsMmsAnalytics =
-                                    telephonyAnalytics.getSmsMmsAnalytics();
-                            if (smsMmsAnalytics != null) {
-                                smsMmsAnalytics.onDroppedIncomingMultipartSms();
-                            }
-                        }
-                    }
+                List<String> rowIds = multiPartRowIds.get(message);
+                if (!batch.isEmpty() && batchRowIds.size() + rowIds.size()
+                        > InboundSmsHandler.MAX_ROW_IDS_PER_DELETE) {
+                    deleteOldMultiPartMessages(context, contentResolver, phone, phoneId, batch,
+                            batchRowIds, multiPartRowIds);
+                    batch.clear();
+                    batchRowIds.clear();
                 }
+                batch.add(message);
+                batchRowIds.addAll(rowIds);
+            }
+            if (!batch.isEmpty()) {
+                deleteOldMultiPartMessages(context, contentResolver, phone, phoneId, batch,
+                        batchRowIds, multiPartRowIds);
             }
         } catch (SQLException e) {
             Rlog.e(TAG, "error reading pending SMS messages", e);
@@ -268,6 +266,51 @@ public class SmsBroadcastUndelivered {
         }
     }
 
+    /**
+     * Permanently delete the segments of a batch of old incomplete multi-part messages with a
+     * single provider call, and record the dropped messages in the metrics.
+     *
+     * <p>The dropped messages are only recorded if every row of the batch was deleted. Otherwise
+     * some rows were removed concurrently and the deleted ones cannot be attributed to their
+     * messages.
+     */
+    private static void deleteOldMultiPartMessages(Context context,
+            ContentResolver contentResolver, Phone phone, int phoneId,
+            List<SmsReferenceKey> messages, List<String> rowIds,
+            Map<SmsReferenceKey, ArrayList<String>> multiPartRowIds) {
+        String[] selectionArgs = rowIds.toArray(new String[0]);
+        int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
+                InboundSmsHandler.getSelectionForRowIds(selectionArgs.length), selectionArgs);
+        if (rows != selectionArgs.length) {
+            Rlog.e(TAG, "Deleted " + rows + " of " + selectionArgs.length + " rows from raw table"
+                    + " for " + messages.size() + " incomplete messages!");
+            return;
+        }
+        if (DBG) {
+            Rlog.d(TAG, "Deleted " + rows + " rows from raw table for " + messages.size()
+                    + " incomplete messages");
+        }
+        for (SmsReferenceKey message : messages) {
+            int messageRows = multiPartRowIds.get(message).size();
+            // Update metrics with dropped SMS
+            TelephonyMetrics metrics = TelephonyMetrics.getInstance();
+            metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat, messageRows,
+                    message.mMessageCount);
+            if (phone != null) {
+                phone.getSmsStats().onDroppedIncomingMultipartSms(message.mIs3gpp2, messageRows,
+                        message.mMessageCount, TelephonyManager.from(context)
+                                .isEmergencyNumber(message.mAddress));
+                TelephonyAnalytics telephonyAnalytics = phone.getTelephonyAnalytics();
+                if (telephonyAnalytics != null) {
+                    SmsMmsAnalytics smsMmsAnalytics = telephonyAnalytics.getSmsMmsAnalytics();
+                    if (smsMmsAnalytics != null) {
+                        smsMmsAnalytics.onDroppedIncomingMultipartSms();
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Send tracker to appropriate (3GPP or 3GPP2) inbound SMS handler for broadcast.
      */
@@ -313,7 +356,6 @@ public class SmsBroadcastUndelivered {
         final String mAddress;
         final int mReferenceNumber;
         final int mMessageCount;
-        final String mQuery;
         final boolean mIs3gpp2;
         final String mFormat;
 
@@ -321,20 +363,10 @@ public class SmsBroadcastUndelivered {
             mAddress = tracker.getAddress();
             mReferenceNumber = tracker.getReferenceNumber();
             mMessageCount = tracker.getMessageCount();
-            mQuery = tracker.getQueryForSegments();
             mIs3gpp2 = tracker.is3gpp2();
             mFormat = tracker.getFormat();
         }
 
-        String[] getDeleteWhereArgs() {
-            return new String[]{mAddress, Integer.toString(mReferenceNumber),
-                    Integer.toString(mMessageCount)};
-        }
-
-        String getDeleteWhere() {
-            return mQuery;
-        }
-
         @Override
         public int hashCode() {
             return ((mReferenceNumber * 31) + mMessageCount) * 31 + mAddress.hashCode();
@@ -35,6 +35,7 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Telephony.Sms;
@@ -50,6 +51,7 @@ import android.telephony.TelephonyManager;
 import android.telephony.emergency.EmergencyNumber;
 import android.telephony.satellite.SatelliteManager;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 
 import com.android.ims.ImsManager;
 import com.android.internal.R;
@@ -71,6 +73,7 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.Collection;
@@ -249,6 +252,8 @@ public class SmsDispatchersController extends Handler {
         public final boolean skipShortCodeCheck;
         public final long uniqueMessageId;
         public final boolean isMtSmsPolling;
+        /** Time at which the request was created, used for queue wait time metrics. */
+        public final long creationTimeMillis = SystemClock.elapsedRealtime();
 
         public PendingRequest(int type, SMSDispatcher.SmsTracker tracker, String callingPackage,
                 int callingUser, String destAddr, String scAddr,
@@ -292,6 +297,81 @@ public class SmsDispatchersController extends Handler {
         }
     }
 
+    /** Scheduling class of parts of messages that are already being sent. */
+    private static final int SCHEDULING_CLASS_RETRY = 0;
+    /** Scheduling class of regular messages. */
+    private static final int SCHEDULING_CLASS_DEFAULT = 1;
+    /** Scheduling class of messages the user does not directly wait for. */
+    private static final int SCHEDULING_CLASS_BACKGROUND = 2;
+    private static final int SCHEDULING_CLASS_COUNT = 3;
+
+    /** Metrics of the requests queued while a domain is being selected. */
+    private int mQueuedRequestCount;
+    private int mMaxQueueDepth;
+    private long mTotalQueueWaitMillis;
+    private long mMaxQueueWaitMillis;
+
+    private static int getSchedulingClass(@NonNull PendingRequest request) {
+        if (request.type == PendingRequest.TYPE_RETRY_SMS) {
+            return SCHEDULING_CLASS_RETRY;
+        }
+        if (request.isForVvm || request.isMtSmsPolling) {
+            return SCHEDULING_CLASS_BACKGROUND;
+        }
+        return SCHEDULING_CLASS_DEFAULT;
+    }
+
+    /**
+     * Order the requests queued during domain selection. Requests are sent by scheduling class
+     * first, so that retries of messages already being sent and regular messages are not held
+     * back by background traffic such as visual voicemail. Within a class the calling apps are
+     * served round-robin, one request at a time, so that an app that queued many messages does
+     * not delay the others. The order of the requests of each app is preserved.
+     *
+     * <p>Emergency SMS use their own {@link DomainSelectionConnectionHolder} and are never
+     * queued behind regular messages.
+     *
+     * @param requests the requests in the order in which they were queued
+     * @return the requests in the order in which they should be sent
+     */
+    @VisibleForTesting
+    public static List<PendingRequest> schedulePendingRequests(
+            @NonNull List<PendingRequest> requests) {
+        if (requests.size() <= 1) {
+            return new ArrayList<>(requests);
+        }
+        List<PendingRequest> scheduled = new ArrayList<>(requests.size());
+        for (int schedulingClass = 0; schedulingClass < SCHEDULING_CLASS_COUNT;
+                schedulingClass++) {
+            // Per-app FIFO queues, kept in the order in which each app first queued a request.
+            ArrayMap<String, ArrayDeque<PendingRequest>> queues = new ArrayMap<>();
+            List<ArrayDeque<PendingRequest>> order = new ArrayList<>();
+            for (PendingRequest r : requests) {
+                if (getSchedulingClass(r) != schedulingClass) continue;
+                String key = r.callingUser + "/" + r.callingPackage;
+                ArrayDeque<PendingRequest> queue = queues.get(key);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    queues.put(key, queue);
+                    order.add(queue);
+                }
+                queue.add(r);
+            }
+            boolean remaining = !order.isEmpty();
+            while (remaining) {
+                remaining = false;
+                for (ArrayDeque<PendingRequest> queue : order) {
+                    PendingRequest r = queue.poll();
+                    if (r != null) {
+                        scheduled.add(r);
+                        remaining |= !queue.isEmpty();
+                    }
+                }
+            }
+        }
+        return scheduled;
+    }
+
     /**
      * Manages the {@link DomainSelectionConnection} instance and its related information.
      */
@@ -1378,7 +1458,16 @@ public class SmsDispatchersController extends Handler {
             }
         }
 
+        long now = SystemClock.elapsedRealtime();
+        mQueuedRequestCount += pendingRequests.size();
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, pendingRequests.size());
         for (PendingRequest r : pendingRequests) {
+            long waitMillis = now - r.creationTimeMillis;
+            mTotalQueueWaitMillis += waitMillis;
+            mMaxQueueWaitMillis = Math.max(mMaxQueueWaitMillis, waitMillis);
+        }
+
+        for (PendingRequest r : schedulePendingRequests(pendingRequests)) {
             switch (r.type) {
                 case PendingRequest.TYPE_DATA:
                     sendData(domain, r);
@@ -2278,6 +2367,11 @@ public class SmsDispatchersController extends Handler {
     }
 
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("SmsDispatchersController: domain selection queue requests="
+                + mQueuedRequestCount + " maxDepth=" + mMaxQueueDepth
+                + " avgWaitMs=" + (mQueuedRequestCount == 0 ? 0
+                        : mTotalQueueWaitMillis / mQueuedRequestCount)
+                + " maxWaitMs=" + mMaxQueueWaitMillis);
         mGsmInboundSmsHandler.dump(fd, pw, args);
         mCdmaInboundSmsHandler.dump(fd, pw, args);
         mGsmDispatcher.dump(fd, pw, args);
@@ -28,14 +28,19 @@ import android.database.ContentObserver;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Process;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.telephony.SmsManager;
+import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.util.ArrayMap;
 import android.util.AtomicFile;
 import android.util.Xml;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.util.XmlUtils;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.telephony.Rlog;
@@ -52,12 +57,12 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -111,8 +116,11 @@ public class SmsUsageMonitor {
     private final int mCheckPeriod;
     private final int mMaxAllowed;
 
-    private final HashMap<String, ArrayList<Long>> mSmsStamp =
-            new HashMap<String, ArrayList<Long>>();
+    /** Send timestamps of each app within the checking period. */
+    private final HashMap<String, SendWindow> mSmsStamp = new HashMap<String, SendWindow>();
+
+    /** Time of the last sweep for apps without any send in the checking period. */
+    private long mLastExpirySweepTime;
 
     /** Context for retrieving regexes from XML resource. */
     private final Context mContext;
@@ -123,6 +131,13 @@ public class SmsUsageMonitor {
     /** Cached short code pattern matcher for {@link #mCurrentCountry}. */
     private ShortCodePatternMatcher mCurrentPatternMatcher;
 
+    /**
+     * Pattern matchers of every country seen since the patterns were last loaded. A null value
+     * means the country has no patterns.
+     */
+    private final ArrayMap<String, ShortCodePatternMatcher> mPatternMatcherCache =
+            new ArrayMap<>();
+
     /** Notice when the enabled setting changes - can be changed through gservices */
     private final AtomicBoolean mCheckEnabled = new AtomicBoolean(true);
 
@@ -184,41 +199,177 @@ public class SmsUsageMonitor {
     /** XML attribute for the package's premium SMS permission (integer type). */
     private static final String ATTR_PACKAGE_SMS_POLICY = "sms-policy";
 
+    /**
+     * Prefix of the per-phone SMS send window XML filename, so that send limits survive a phone
+     * crash. The phone id and ".xml" are appended.
+     */
+    private static final String SMS_SEND_WINDOW_FILE_NAME_PREFIX = "sms_send_windows_";
+
+    /** XML tag for root element of the SMS send windows. */
+    private static final String TAG_SMS_SEND_WINDOWS_BODY = "sms-send-windows";
+
+    /** XML attribute for the comma separated send timestamps of a package. */
+    private static final String ATTR_PACKAGE_SEND_TIMES = "send-times";
+
+    /** Delay used to coalesce writes of the send windows during a burst of messages. */
+    private static final long SEND_WINDOW_WRITE_DELAY_MS = 1000;
+
+    /** Stored copy of the per-app SMS send windows. */
+    private AtomicFile mSendWindowFile;
+
+    /** The phone whose send windows are persisted, or INVALID_PHONE_INDEX if not persisted. */
+    @GuardedBy("mSmsStamp")
+    private int mPhoneId = SubscriptionManager.INVALID_PHONE_INDEX;
+
+    private final Runnable mWriteSendWindowsRunnable = this::writeSendWindows;
+
+    /** Handler of the thread writing the send windows of all phones, created on first use. */
+    private static Handler sSendWindowWriteHandler;
+
+    /**
+     * Timestamps of the SMS sent by one app, in a ring buffer sized to the maximum number of
+     * messages allowed in the checking period. Insertion is O(1) and expiry is O(1) per expired
+     * timestamp.
+     */
+    @VisibleForTesting
+    static final class SendWindow {
+        private final long[] mTimes;
+        private int mHead;
+        private int mSize;
+
+        SendWindow(int capacity) {
+            mTimes = new long[Math.max(capacity, 0)];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int capacity() {
+            return mTimes.length;
+        }
+
+        /** @return the most recent timestamp, or {@link Long#MIN_VALUE} if empty */
+        long newest() {
+            return mSize == 0 ? Long.MIN_VALUE : mTimes[(mHead + mSize - 1) % mTimes.length];
+        }
+
+        /** Drop all timestamps older than {@code beginCheckPeriod}. */
+        void expire(long beginCheckPeriod) {
+            while (mSize > 0 && mTimes[mHead] < beginCheckPeriod) {
+                mHead = (mHead + 1) % mTimes.length;
+                mSize--;
+            }
+        }
+
+        /**
+         * Append a timestamp. If the buffer is full, the oldest timestamp is dropped, which only
+         * happens when loading a window saved with a larger limit.
+         */
+        void add(long time) {
+            if (mTimes.length == 0) return;
+            if (mSize == mTimes.length) {
+                mHead = (mHead + 1) % mTimes.length;
+                mSize--;
+            }
+            mTimes[(mHead + mSize) % mTimes.length] = time;
+            mSize++;
+        }
+
+        /** @return the timestamps, oldest first */
+        long[] toArray() {
+            long[] times = new long[mSize];
+            for (int i = 0; i < mSize; i++) {
+                times[i] = mTimes[(mHead + i) % mTimes.length];
+            }
+            return times;
+        }
+    }
+
     /**
      * SMS short code regex pattern matcher for a specific country.
+     *
+     * <p>The free, standard, premium and generic short code patterns are normally combined into
+     * a single pattern with one named group per category, listed in the order in which the
+     * categories take precedence. {@link Matcher#matches()} picks the first alternative that
+     * matches the whole number, so one match gives the same answer as testing the patterns one
+     * after the other. Patterns that could behave differently once combined (back references,
+     * inline flags or named groups) are matched separately.
      */
-    private static final class ShortCodePatternMatcher {
-        private final Pattern mShortCodePattern;
-        private final Pattern mPremiumShortCodePattern;
-        private final Pattern mFreeShortCodePattern;
-        private final Pattern mStandardShortCodePattern;
+    @VisibleForTesting
+    static final class ShortCodePatternMatcher {
+        private static final String[] GROUP_NAMES = {"free", "standard", "premium", "shortcode"};
+        private static final int[] CATEGORIES = {
+                SmsManager.SMS_CATEGORY_FREE_SHORT_CODE,
+                SmsManager.SMS_CATEGORY_STANDARD_SHORT_CODE,
+                SmsManager.SMS_CATEGORY_PREMIUM_SHORT_CODE,
+                SmsManager.SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE};
+
+        /** Patterns in order of precedence, null if absent for this country. */
+        private final Pattern[] mPatterns = new Pattern[CATEGORIES.length];
+
+        /** Combined pattern, or null if the patterns must be matched separately. */
+        private final Pattern mCombinedPattern;
 
         ShortCodePatternMatcher(String shortCodeRegex, String premiumShortCodeRegex,
                 String freeShortCodeRegex, String standardShortCodeRegex) {
-            mShortCodePattern = (shortCodeRegex != null ? Pattern.compile(shortCodeRegex) : null);
-            mPremiumShortCodePattern = (premiumShortCodeRegex != null ?
-                    Pattern.compile(premiumShortCodeRegex) : null);
-            mFreeShortCodePattern = (freeShortCodeRegex != null ?
-                    Pattern.compile(freeShortCodeRegex) : null);
-            mStandardShortCodePattern = (standardShortCodeRegex != null ?
-                    Pattern.compile(standardShortCodeRegex) : null);
+            String[] regexes = {freeShortCodeRegex, standardShortCodeRegex,
+                    premiumShortCodeRegex, shortCodeRegex};
+            StringBuilder combined = new StringBuilder();
+            boolean combinable = true;
+            for (int i = 0; i < regexes.length; i++) {
+                if (regexes[i] == null) continue;
+                mPatterns[i] = Pattern.compile(regexes[i]);
+                combinable &= isCombinable(regexes[i]);
+                if (combined.length() > 0) combined.append('|');
+                combined.append("(?<").append(GROUP_NAMES[i]).append('>')
+                        .append(regexes[i]).append(')');
+            }
+            mCombinedPattern = combinable && combined.length() > 0
+                    ? Pattern.compile(combined.toString()) : null;
         }
 
-        int getNumberCategory(String phoneNumber) {
-            if (mFreeShortCodePattern != null && mFreeShortCodePattern.matcher(phoneNumber)
-                    .matches()) {
-                return SmsManager.SMS_CATEGORY_FREE_SHORT_CODE;
-            }
-            if (mStandardShortCodePattern != null && mStandardShortCodePattern.matcher(phoneNumber)
-                    .matches()) {
-                return SmsManager.SMS_CATEGORY_STANDARD_SHORT_CODE;
+        private static boolean isCombinable(String regex) {
+            for (int i = 0; i < regex.length() - 1; i++) {
+                char c = regex.charAt(i);
+                char next = regex.charAt(i + 1);
+                if (c == '\\') {
+                    if (Character.isDigit(next) || next == 'k') return false;
+                    i++;    // skip the escaped character
+                } else if (c == '(' && next == '?' && (i + 2 >= regex.length()
+                        || regex.charAt(i + 2) != ':')) {
+                    return false;
+                }
             }
-            if (mPremiumShortCodePattern != null && mPremiumShortCodePattern.matcher(phoneNumber)
-                    .matches()) {
-                return SmsManager.SMS_CATEGORY_PREMIUM_SHORT_CODE;
+            return true;
+        }
+
+        @VisibleForTesting
+        boolean isCombined() {
+            return mCombinedPattern != null;
+        }
+
+        int getNumberCategory(String phoneNumber) {
+            if (mCombinedPattern != null) {
+                Matcher matcher = mCombinedPattern.matcher(phoneNumber);
+                if (matcher.matches()) {
+                    for (int i = 0; i < CATEGORIES.length; i++) {
+                        if (mPatterns[i] != null && matcher.start(GROUP_NAMES[i]) >= 0) {
+                            return CATEGORIES[i];
+                        }
+                    }
+                }
+                return SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
             }
-            if (mShortCodePattern != null && mShortCodePattern.matcher(phoneNumber).matches()) {
-                return SmsManager.SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE;
+            return getNumberCategorySeparately(phoneNumber);
+        }
+
+        @VisibleForTesting
+        int getNumberCategorySeparately(String phoneNumber) {
+            for (int i = 0; i < CATEGORIES.length; i++) {
+                if (mPatterns[i] != null && mPatterns[i].matcher(phoneNumber).matches()) {
+                    return CATEGORIES[i];
+                }
             }
             return SmsManager.SMS_CATEGORY_NOT_SHORT_CODE;
         }
@@ -277,6 +428,19 @@ public class SmsUsageMonitor {
         loadPremiumSmsPolicyDb();
     }
 
+    /**
+     * Persist the send windows of the given phone, so that the send limits still apply after a
+     * phone process restart. The windows saved before the restart are loaded.
+     * @param phoneId the phone id used to name the send window file
+     */
+    void enableSendWindowPersistence(int phoneId) {
+        synchronized (mSmsStamp) {
+            mPhoneId = phoneId;
+            mSendWindowFile = null;
+        }
+        loadSendWindows();
+    }
+
     /**
      * Return a pattern matcher object for the specified country.
      * @param country the country to search for
@@ -354,6 +518,7 @@ public class SmsUsageMonitor {
 
     /** Clear the SMS application list for disposal. */
     void dispose() {
+        getSendWindowWriteHandler().removeCallbacks(mWriteSendWindowsRunnable);
         mSmsStamp.clear();
     }
 
@@ -372,9 +537,9 @@ public class SmsUsageMonitor {
         synchronized (mSmsStamp) {
             removeExpiredTimestamps();
 
-            ArrayList<Long> sentList = mSmsStamp.get(appName);
+            SendWindow sentList = mSmsStamp.get(appName);
             if (sentList == null) {
-                sentList = new ArrayList<Long>();
+                sentList = new SendWindow(mMaxAllowed);
                 mSmsStamp.put(appName, sentList);
             }
 
@@ -419,16 +584,25 @@ public class SmsUsageMonitor {
             }
 
             if (countryIso != null) {
-                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry) ||
-                        mPatternFile.lastModified() != mPatternFileLastModified) {
-                    if (mPatternFile.exists()) {
+                if (mPatternFile.lastModified() != mPatternFileLastModified) {
+                    // The pattern file was updated, drop the matchers built from the old one.
+                    mPatternMatcherCache.clear();
+                    mPatternFileLastModified = mPatternFile.lastModified();
+                    mCurrentCountry = null;
+                }
+                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry)) {
+                    if (mPatternMatcherCache.containsKey(countryIso)) {
+                        mCurrentPatternMatcher = mPatternMatcherCache.get(countryIso);
+                    } else if (mPatternFile.exists()) {
                         if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
                         mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
                         mPatternFileVersion = getPatternFileVersionFromFile();
+                        mPatternMatcherCache.put(countryIso, mCurrentPatternMatcher);
                     } else {
                         if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
                         mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
                         mPatternFileVersion = -1;
+                        mPatternMatcherCache.put(countryIso, mCurrentPatternMatcher);
                     }
                     mCurrentCountry = countryIso;
                 }
@@ -647,42 +821,218 @@ public class SmsUsageMonitor {
 
     /**
      * Remove keys containing only old timestamps. This can happen if an SMS app is used
-     * to send messages and then uninstalled.
+     * to send messages and then uninstalled. Each app's own window is expired when it sends, so
+     * this sweep only needs to run once per checking period.
      */
     private void removeExpiredTimestamps() {
-        long beginCheckPeriod = System.currentTimeMillis() - mCheckPeriod;
+        long now = System.currentTimeMillis();
+        long beginCheckPeriod = now - mCheckPeriod;
 
         synchronized (mSmsStamp) {
-            Iterator<Map.Entry<String, ArrayList<Long>>> iter = mSmsStamp.entrySet().iterator();
+            if (now - mLastExpirySweepTime < mCheckPeriod && now >= mLastExpirySweepTime) {
+                return;
+            }
+            mLastExpirySweepTime = now;
+            Iterator<Map.Entry<String, SendWindow>> iter = mSmsStamp.entrySet().iterator();
             while (iter.hasNext()) {
-                Map.Entry<String, ArrayList<Long>> entry = iter.next();
-                ArrayList<Long> oldList = entry.getValue();
-                if (oldList.isEmpty() || oldList.get(oldList.size() - 1) < beginCheckPeriod) {
+                SendWindow oldList = iter.next().getValue();
+                if (oldList.newest() < beginCheckPeriod) {
                     iter.remove();
                 }
             }
         }
     }
 
-    private boolean isUnderLimit(ArrayList<Long> sent, int smsWaiting) {
-        Long ct = System.currentTimeMillis();
+    private boolean isUnderLimit(SendWindow sent, int smsWaiting) {
+        long ct = System.currentTimeMillis();
         long beginCheckPeriod = ct - mCheckPeriod;
 
         if (VDBG) log("SMS send size=" + sent.size() + " time=" + ct);
 
-        while (!sent.isEmpty() && sent.get(0) < beginCheckPeriod) {
-            sent.remove(0);
-        }
+        sent.expire(beginCheckPeriod);
 
         if ((sent.size() + smsWaiting) <= mMaxAllowed) {
             for (int i = 0; i < smsWaiting; i++ ) {
                 sent.add(ct);
             }
+            if (smsWaiting > 0) {
+                scheduleWriteSendWindows();
+            }
             return true;
         }
         return false;
     }
 
+    private void scheduleWriteSendWindows() {
+        // Written on a single background thread, so that writes of a file never overlap.
+        Handler handler = getSendWindowWriteHandler();
+        if (getSendWindowFile() != null && !handler.hasCallbacks(mWriteSendWindowsRunnable)) {
+            handler.postDelayed(mWriteSendWindowsRunnable, SEND_WINDOW_WRITE_DELAY_MS);
+        }
+    }
+
+    private static synchronized Handler getSendWindowWriteHandler() {
+        if (sSendWindowWriteHandler == null) {
+            HandlerThread thread = new HandlerThread("SmsSendWindowWriter");
+            thread.start();
+            sSendWindowWriteHandler = new Handler(thread.getLooper());
+        }
+        return sSendWindowWriteHandler;
+    }
+
+    /**
+     * @return the send window file of this phone, or {@code null} if the send windows are not
+     *         persisted
+     */
+    private AtomicFile getSendWindowFile() {
+        synchronized (mSmsStamp) {
+            if (mPhoneId == SubscriptionManager.INVALID_PHONE_INDEX) {
+                return null;
+            }
+            if (mSendWindowFile == null) {
+                mSendWindowFile = new AtomicFile(new File(new File(SMS_POLICY_FILE_DIRECTORY),
+                        SMS_SEND_WINDOW_FILE_NAME_PREFIX + mPhoneId + ".xml"));
+            }
+            return mSendWindowFile;
+        }
+    }
+
+    /**
+     * Load the send windows saved before the phone process was restarted, dropping timestamps
+     * that are already outside the checking period.
+     */
+    private void loadSendWindows() {
+        AtomicFile file = getSendWindowFile();
+        if (file == null) {
+            return;
+        }
+        synchronized (mSmsStamp) {
+            readSendWindows(file, mMaxAllowed, System.currentTimeMillis() - mCheckPeriod,
+                    mSmsStamp);
+        }
+    }
+
+    /**
+     * Read the send windows from a file.
+     * @param file the file to read
+     * @param capacity the capacity of each window
+     * @param beginCheckPeriod timestamps before this time are dropped
+     * @param windows the map to put the non-empty windows into, keyed by package name
+     */
+    @VisibleForTesting
+    static void readSendWindows(AtomicFile file, int capacity, long beginCheckPeriod,
+            Map<String, SendWindow> windows) {
+        FileInputStream infile = null;
+        try {
+            infile = file.openRead();
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(infile, StandardCharsets.UTF_8.name());
+
+            XmlUtils.beginDocument(parser, TAG_SMS_SEND_WINDOWS_BODY);
+
+            while (true) {
+                XmlUtils.nextElement(parser);
+
+                String element = parser.getName();
+                if (element == null) break;
+
+                if (element.equals(TAG_PACKAGE)) {
+                    String packageName = parser.getAttributeValue(null, ATTR_PACKAGE_NAME);
+                    String times = parser.getAttributeValue(null, ATTR_PACKAGE_SEND_TIMES);
+                    if (packageName == null || times == null) {
+                        Rlog.e(TAG, "Error: missing send window attribute");
+                        continue;
+                    }
+                    SendWindow window = new SendWindow(capacity);
+                    for (String time : times.split(",")) {
+                        window.add(Long.parseLong(time));
+                    }
+                    window.expire(beginCheckPeriod);
+                    if (window.size() > 0) {
+                        windows.put(packageName, window);
+                    }
+                } else {
+                    Rlog.e(TAG, "Error: skipping unknown XML tag " + element);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // No data yet
+        } catch (IOException | NumberFormatException | XmlPullParserException e) {
+            Rlog.e(TAG, "Unable to read SMS send windows", e);
+        } finally {
+            if (infile != null) {
+                try {
+                    infile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Persist the send windows so that the limits still apply after a phone process restart.
+     */
+    private void writeSendWindows() {
+        ArrayMap<String, long[]> windows = new ArrayMap<>();
+        synchronized (mSmsStamp) {
+            for (Map.Entry<String, SendWindow> entry : mSmsStamp.entrySet()) {
+                if (entry.getValue().size() > 0) {
+                    windows.put(entry.getKey(), entry.getValue().toArray());
+                }
+            }
+        }
+
+        AtomicFile file = getSendWindowFile();
+        if (file == null) {
+            return;
+        }
+        writeSendWindows(file, windows);
+    }
+
+    /**
+     * Write the send windows to a file.
+     * @param file the file to write
+     * @param windows the timestamps of each window, keyed by package name
+     */
+    @VisibleForTesting
+    static void writeSendWindows(AtomicFile file, Map<String, long[]> windows) {
+        synchronized (file) {
+            FileOutputStream outfile = null;
+            try {
+                outfile = file.startWrite();
+
+                XmlSerializer out = new FastXmlSerializer();
+                out.setOutput(outfile, StandardCharsets.UTF_8.name());
+
+                out.startDocument(null, true);
+
+                out.startTag(null, TAG_SMS_SEND_WINDOWS_BODY);
+
+                for (Map.Entry<String, long[]> entry : windows.entrySet()) {
+                    StringBuilder times = new StringBuilder();
+                    for (long time : entry.getValue()) {
+                        if (times.length() > 0) times.append(',');
+                        times.append(time);
+                    }
+                    out.startTag(null, TAG_PACKAGE);
+                    out.attribute(null, ATTR_PACKAGE_NAME, entry.getKey());
+                    out.attribute(null, ATTR_PACKAGE_SEND_TIMES, times.toString());
+                    out.endTag(null, TAG_PACKAGE);
+                }
+
+                out.endTag(null, TAG_SMS_SEND_WINDOWS_BODY);
+                out.endDocument();
+
+                file.finishWrite(outfile);
+            } catch (IOException e) {
+                Rlog.e(TAG, "Unable to write SMS send windows", e);
+                if (outfile != null) {
+                    file.failWrite(outfile);
+                }
+            }
+        }
+    }
+
     private int getPatternFileVersionFromFile() {
         File versionFile = new File(SHORT_CODE_VERSION_PATH);
         if (versionFile.exists()) {
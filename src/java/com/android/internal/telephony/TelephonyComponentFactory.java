@@ -318,6 +318,16 @@ public class TelephonyComponentFactory {
         return new SmsUsageMonitor(context);
     }
 
+    /**
+     * Create the SMS usage monitor of a phone, which persists its send windows per phone. The
+     * monitor is created by {@link #makeSmsUsageMonitor(Context)}.
+     */
+    public SmsUsageMonitor makeSmsUsageMonitor(Context context, int phoneId) {
+        SmsUsageMonitor smsUsageMonitor = makeSmsUsageMonitor(context);
+        smsUsageMonitor.enableSendWindowPersistence(phoneId);
+        return smsUsageMonitor;
+    }
+
     public ServiceStateTracker makeServiceStateTracker(GsmCdmaPhone phone, CommandsInterface ci,
             @NonNull FeatureFlags featureFlags) {
         Rlog.d(LOG_TAG, "makeServiceStateTracker");
@@ -21,6 +21,7 @@ import android.annotation.Nullable;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.VoicemailContract;
 import android.telecom.PhoneAccountHandle;
@@ -33,8 +34,10 @@ import android.telephony.VisualVoicemailSmsFilterSettings;
 import android.util.ArrayMap;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.VisualVoicemailSmsParser.WrappedMessageData;
+import com.android.internal.util.IndentingPrintWriter;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
@@ -74,6 +77,16 @@ public class VisualVoicemailSmsFilter {
 
     private static Map<String, List<Pattern>> sPatterns;
 
+    private static final Object sStatsLock = new Object();
+
+    /** Number of SMS passed through {@link #filter} and the time spent on them. */
+    @GuardedBy("sStatsLock")
+    private static int sFilterCount;
+    @GuardedBy("sStatsLock")
+    private static long sTotalFilterNanos;
+    @GuardedBy("sStatsLock")
+    private static long sMaxFilterNanos;
+
     private static final PhoneAccountHandleConverter DEFAULT_PHONE_ACCOUNT_HANDLE_CONVERTER =
             new PhoneAccountHandleConverter() {
 
@@ -129,6 +142,21 @@ public class VisualVoicemailSmsFilter {
      */
     public static boolean filter(Context context, byte[][] pdus, String format, int destPort,
             int subId) {
+        long startTimeNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            return filterInternal(context, pdus, format, destPort, subId);
+        } finally {
+            long durationNanos = SystemClock.elapsedRealtimeNanos() - startTimeNanos;
+            synchronized (sStatsLock) {
+                sFilterCount++;
+                sTotalFilterNanos += durationNanos;
+                sMaxFilterNanos = Math.max(sMaxFilterNanos, durationNanos);
+            }
+        }
+    }
+
+    private static boolean filterInternal(Context context, byte[][] pdus, String format,
+            int destPort, int subId) {
         TelephonyManager telephonyManager =
                 (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
 
@@ -136,6 +164,11 @@ public class VisualVoicemailSmsFilter {
         settings = telephonyManager.getActiveVisualVoicemailSmsFilterSettings(subId);
 
         if (settings == null) {
+            buildPatternsMap(context);
+            if (sPatterns.isEmpty()) {
+                // Without a filter or carrier patterns nothing can match, so don't decode the SMS.
+                return false;
+            }
             FullMessage fullMessage = getFullMessage(pdus, format);
             if (fullMessage != null) {
                 // This is special case that voice mail SMS received before the filter has been
@@ -217,9 +250,21 @@ public class VisualVoicemailSmsFilter {
         return false;
     }
 
+    /** Dump the cost of filtering SMS. */
+    public static void dump(IndentingPrintWriter pw) {
+        synchronized (sStatsLock) {
+            pw.println("VisualVoicemailSmsFilter: filtered=" + sFilterCount
+                    + " avgUs=" + (sFilterCount == 0 ? 0 : sTotalFilterNanos / sFilterCount / 1000)
+                    + " maxUs=" + sMaxFilterNanos / 1000);
+        }
+    }
+
     private static boolean messageBodyMatchesVvmPattern(Context context, int subId,
             String messageBody) {
         buildPatternsMap(context);
+        if (sPatterns.isEmpty()) {
+            return false;
+        }
         String mccMnc = context.getSystemService(TelephonyManager.class).getSimOperator(subId);
 
         List<Pattern> patterns = sPatterns.get(mccMnc);
@@ -249,6 +294,24 @@ public class VisualVoicemailSmsFilter {
         }
     }
 
+    /**
+     * Drop the carrier patterns so that they are built again from the resources on next use.
+     */
+    @VisibleForTesting
+    public static void resetPatternsForTest() {
+        sPatterns = null;
+    }
+
+    /**
+     * @return the number of SMS passed through {@link #filter} so far.
+     */
+    @VisibleForTesting
+    public static int getFilterCountForTest() {
+        synchronized (sStatsLock) {
+            return sFilterCount;
+        }
+    }
+
     private static void buildPatternsMap(Context context) {
         if (sPatterns != null) {
             return;
@@ -21,9 +21,7 @@ import android.telephony.Rlog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.NoSuchElementException;
@@ -36,7 +34,9 @@ import java.util.concurrent.TimeUnit;
  *
  * The cache uses a circular buffer and will start invalidating the oldest entries after 250
  * message sizes have been inserted.
- * The cache also invalidates entries that have been in the cache for over 14 days.
+ * The cache also invalidates entries that have been in the cache for over 14 days. Since every
+ * entry has the same lifetime, entries are kept in insertion order, which is also expiry order,
+ * so expired entries are always at the head of the cache.
  */
 public class WapPushCache {
     private static final String TAG = "WAP PUSH CACHE";
@@ -51,9 +51,9 @@ public class WapPushCache {
     // carrier has an expiry of 7 days so 14 will give us room for those with longer times as well.
     private static final long CACHE_EXPIRY_TIME = TimeUnit.DAYS.toMillis(14);
 
-    private static final HashMap<String, CacheEntry> sMessageSizes = new LinkedHashMap<>() {
+    private static final LinkedHashMap<Key, CacheEntry> sMessageSizes = new LinkedHashMap<>() {
         @Override
-        protected boolean removeEldestEntry(Entry<String, CacheEntry> eldest) {
+        protected boolean removeEldestEntry(Entry<Key, CacheEntry> eldest) {
             return size() > MAX_CACHE_SIZE;
         }
     };
@@ -84,20 +84,25 @@ public class WapPushCache {
             Rlog.e(TAG, "Invalid message size of " + messageSize + ". Not inserting.");
             return;
         }
+        // concatenate the locationUrl and transactionId
+        byte[] joinedKey = Arrays.copyOf(locationUrl, locationUrl.length + transactionId.length);
+        System.arraycopy(transactionId, 0, joinedKey, locationUrl.length, transactionId.length);
+
+        CacheEntry entry = new CacheEntry(messageSize, expiry);
         synchronized (sMessageSizes) {
-            sMessageSizes.put(Arrays.toString(locationUrl), new CacheEntry(messageSize, expiry));
-
-            // concatenate the locationUrl and transactionId
-            byte[] joinedKey = ByteBuffer
-                    .allocate(locationUrl.length + transactionId.length)
-                    .put(locationUrl)
-                    .put(transactionId)
-                    .array();
-            sMessageSizes.put(Arrays.toString(joinedKey), new CacheEntry(messageSize, expiry));
             invalidateOldEntries();
+            putLocked(new Key(locationUrl.clone()), entry);
+            putLocked(new Key(joinedKey), entry);
         }
     }
 
+    private static void putLocked(Key key, CacheEntry entry) {
+        // Remove first so that a refreshed entry moves to the tail and the cache stays in expiry
+        // order; LinkedHashMap keeps the original position when an existing key is replaced.
+        sMessageSizes.remove(key);
+        sMessageSizes.put(key, entry);
+    }
+
     /**
      * Remove entries from the cache that are older than CACHE_EXPIRY_TIME
      */
@@ -133,7 +138,11 @@ public class WapPushCache {
         if (locationUrl.length == 0) {
             throw new IllegalArgumentException("Found empty locationUrl");
         }
-        CacheEntry entry = sMessageSizes.get(Arrays.toString(locationUrl));
+        CacheEntry entry;
+        synchronized (sMessageSizes) {
+            invalidateOldEntries();
+            entry = sMessageSizes.get(new Key(locationUrl));
+        }
         if (entry == null) {
             throw new NoSuchElementException(
                 "No cached WAP size for locationUrl " + Arrays.toString(locationUrl)
@@ -147,7 +156,9 @@ public class WapPushCache {
      */
     @VisibleForTesting
     public static void clear() {
-        sMessageSizes.clear();
+        synchronized (sMessageSizes) {
+            sMessageSizes.clear();
+        }
     }
 
     /**
@@ -156,10 +167,31 @@ public class WapPushCache {
      */
     @VisibleForTesting
     public static int size() {
-        return sMessageSizes.size();
+        synchronized (sMessageSizes) {
+            return sMessageSizes.size();
+        }
     }
 
+    /** Cache key comparing the content of a byte array, without converting it to a string. */
+    private static class Key {
+        Key(byte[] bytes) {
+            mBytes = bytes;
+            mHashCode = Arrays.hashCode(bytes);
+        }
+        private final byte[] mBytes;
+        private final int mHashCode;
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && mHashCode == ((Key) o).mHashCode
+                    && Arrays.equals(mBytes, ((Key) o).mBytes);
+        }
 
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
 
     private static class CacheEntry {
         CacheEntry(long size, long expiry) {
@@ -162,8 +162,11 @@ public class WapPushOverSms implements ServiceConnection {
      * Activity.RESULT_OK - the wap push pdu is successfully decoded and should be further processed
      * Intents.RESULT_SMS_HANDLED - the wap push pdu should be ignored.
      * Intents.RESULT_SMS_GENERIC_ERROR - the pdu is invalid.
+     *
+     * @param mmsOnly if true, decoding stops right after the content type for pdus that are not
+     *                MMS, and only {@link DecodedResult#mimeType} is set for them.
      */
-    private DecodedResult decodeWapPdu(byte[] pdu, InboundSmsHandler handler) {
+    private DecodedResult decodeWapPdu(byte[] pdu, InboundSmsHandler handler, boolean mmsOnly) {
         DecodedResult result = new DecodedResult();
         if (DBG) Rlog.d(TAG, "Rx: " + IccUtils.bytesToHexString(pdu));
 
@@ -241,6 +244,13 @@ public class WapPushOverSms implements ServiceConnection {
             long binaryContentType = pduDecoder.getValue32();
             index += pduDecoder.getDecodedDataLength();
 
+            if (mmsOnly && !WspTypeDecoder.CONTENT_TYPE_B_MMS.equals(mimeType)) {
+                // No need to copy the body or run the MMS parser for other content types.
+                result.mimeType = mimeType;
+                result.statusCode = Activity.RESULT_OK;
+                return result;
+            }
+
             byte[] header = new byte[headerLength];
             System.arraycopy(pdu, headerStartIndex, header, 0, header.length);
 
@@ -336,7 +346,7 @@ public class WapPushOverSms implements ServiceConnection {
     @SuppressLint("MissingPermission")
     public int dispatchWapPdu(byte[] pdu, InboundSmsHandler.SmsBroadcastReceiver receiver,
             InboundSmsHandler handler, String address, int subId, long messageId) {
-        DecodedResult result = decodeWapPdu(pdu, handler);
+        DecodedResult result = decodeWapPdu(pdu, handler, false /* mmsOnly */);
         if (result.statusCode != Activity.RESULT_OK) {
             return result.statusCode;
         }
@@ -448,7 +458,7 @@ public class WapPushOverSms implements ServiceConnection {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean isWapPushForMms(byte[] pdu, InboundSmsHandler handler) {
-        DecodedResult result = decodeWapPdu(pdu, handler);
+        DecodedResult result = decodeWapPdu(pdu, handler, true /* mmsOnly */);
         return result.statusCode == Activity.RESULT_OK
             && WspTypeDecoder.CONTENT_TYPE_B_MMS.equals(result.mimeType);
     }
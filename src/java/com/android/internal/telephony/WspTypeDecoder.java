@@ -475,19 +475,20 @@ public class WspTypeDecoder {
     }
 
     private boolean readContentParameters(int startIndex, int leftToRead, int accumulator) {
-
-        int totalRead = 0;
-
-        if (leftToRead > 0) {
-            byte nextByte = mWspData[startIndex];
+        // Parameters are read in a loop rather than one recursive call per parameter, so that a
+        // PDU with many parameters can't exhaust the stack.
+        int index = startIndex;
+        while (leftToRead > 0) {
+            int totalRead = 0;
+            byte nextByte = mWspData[index];
             String value = null;
             String param = null;
             if ((nextByte & 0x80) == 0x00 && nextByte > 31) { // untyped
-                decodeTokenText(startIndex);
+                decodeTokenText(index);
                 param = mStringValue;
                 totalRead += mDataLength;
             } else { // typed
-                if (decodeIntegerValue(startIndex)) {
+                if (decodeIntegerValue(index)) {
                     totalRead += mDataLength;
                     int wellKnownParameterValue = (int) mUnsigned32bit;
                     param = WELL_KNOWN_PARAMETERS.get(wellKnownParameterValue);
@@ -496,12 +497,14 @@ public class WspTypeDecoder {
                     }
                     // special case for the "Q" parameter, value is a uintvar
                     if (wellKnownParameterValue == Q_VALUE) {
-                        if (decodeUintvarInteger(startIndex + totalRead)) {
+                        if (decodeUintvarInteger(index + totalRead)) {
                             totalRead += mDataLength;
                             value = String.valueOf(mUnsigned32bit);
                             mContentParameters.put(param, value);
-                            return readContentParameters(startIndex + totalRead, leftToRead
-                                                            - totalRead, accumulator + totalRead);
+                            index += totalRead;
+                            leftToRead -= totalRead;
+                            accumulator += totalRead;
+                            continue;
                         } else {
                             return false;
                         }
@@ -511,15 +514,15 @@ public class WspTypeDecoder {
                 }
             }
 
-            if (decodeNoValue(startIndex + totalRead)) {
+            if (decodeNoValue(index + totalRead)) {
                 totalRead += mDataLength;
                 value = null;
-            } else if (decodeIntegerValue(startIndex + totalRead)) {
+            } else if (decodeIntegerValue(index + totalRead)) {
                 totalRead += mDataLength;
                 int intValue = (int) mUnsigned32bit;
                 value = String.valueOf(intValue);
             } else {
-                decodeTokenText(startIndex + totalRead);
+                decodeTokenText(index + totalRead);
                 totalRead += mDataLength;
                 value = mStringValue;
                 if (value.startsWith("\"")) {
@@ -528,13 +531,12 @@ public class WspTypeDecoder {
                 }
             }
             mContentParameters.put(param, value);
-            return readContentParameters(startIndex + totalRead, leftToRead - totalRead,
-                                            accumulator + totalRead);
-
-        } else {
-            mDataLength = accumulator;
-            return true;
+            index += totalRead;
+            leftToRead -= totalRead;
+            accumulator += totalRead;
         }
+        mDataLength = accumulator;
+        return true;
     }
 
     /**
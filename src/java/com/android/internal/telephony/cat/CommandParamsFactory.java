@@ -334,8 +334,16 @@ public class CommandParamsFactory extends Handler {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private ComprehensionTlv searchForTag(ComprehensionTlvTag tag,
             List<ComprehensionTlv> ctlvs) {
-        Iterator<ComprehensionTlv> iter = ctlvs.iterator();
-        return searchForNextTag(tag, iter);
+        // Indexed scan instead of an iterator so that the repeated lookups done for every
+        // proactive command don't allocate.
+        int tagValue = tag.value();
+        for (int i = 0, size = ctlvs.size(); i < size; i++) {
+            ComprehensionTlv ctlv = ctlvs.get(i);
+            if (ctlv.getTag() == tagValue) {
+                return ctlv;
+            }
+        }
+        return null;
     }
 
     /**
@@ -93,8 +93,8 @@ public class ComprehensionTlv {
      */
     public static List<ComprehensionTlv> decodeMany(byte[] data, int startIndex)
             throws ResultException {
-        ArrayList<ComprehensionTlv> items = new ArrayList<ComprehensionTlv>();
         int endIndex = data.length;
+        ArrayList<ComprehensionTlv> items = new ArrayList<ComprehensionTlv>();
         while (startIndex < endIndex) {
             ComprehensionTlv ctlv = ComprehensionTlv.decode(data, startIndex);
             if (ctlv != null) {
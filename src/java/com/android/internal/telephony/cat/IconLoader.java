@@ -25,11 +25,10 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.util.LruCache;
 
 import com.android.internal.telephony.uicc.IccFileHandler;
 
-import java.util.HashMap;
-
 /**
  * Class for loading icons from the SIM card. Has two states: single, for loading
  * one icon. Multi, for loading icons list.
@@ -48,7 +47,9 @@ class IconLoader extends Handler {
     private int[] mRecordNumbers = null;
     private int mCurrentRecordIndex = 0;
     private Bitmap[] mIcons = null;
-    private HashMap<Integer, Bitmap> mIconsCache = null;
+    // Decoded icons keyed by EF-IMG record number. The loader is disposed together with the
+    // card session, so record numbers are unique for the lifetime of the cache.
+    private LruCache<Integer, Bitmap> mIconsCache = null;
 
     private static IconLoader sLoader = null;
     private static HandlerThread sThread = null;
@@ -68,13 +69,15 @@ class IconLoader extends Handler {
     private static final int CLUT_LOCATION_OFFSET = 4;
     // CLUT entry size, {Red, Green, Black}
     private static final int CLUT_ENTRY_SIZE = 3;
+    // Maximum number of decoded icons kept in memory.
+    private static final int MAX_CACHED_ICONS = 50;
 
 
     private IconLoader(Looper looper , IccFileHandler fh) {
         super(looper);
         mSimFH = fh;
 
-        mIconsCache = new HashMap<Integer, Bitmap>(50);
+        mIconsCache = new LruCache<Integer, Bitmap>(MAX_CACHED_ICONS);
     }
 
     static IconLoader getInstance(Handler caller, IccFileHandler fh) {
@@ -120,8 +123,9 @@ class IconLoader extends Handler {
         mRecordNumber = recordNumber;
 
         // make sure the icon was not already loaded and saved in the local cache.
-        if (mIconsCache.containsKey(recordNumber)) {
-            mCurrentIcon = mIconsCache.get(recordNumber);
+        Bitmap cachedIcon = mIconsCache.get(recordNumber);
+        if (cachedIcon != null) {
+            mCurrentIcon = cachedIcon;
             postIcon();
             return;
         }
@@ -249,15 +253,13 @@ class IconLoader extends Handler {
         int[] pixels = new int[numOfPixels];
 
         int pixelIndex = 0;
-        int bitIndex = 7;
-        byte currentByte = 0x00;
         while (pixelIndex < numOfPixels) {
-            // reassign data and index for every byte (8 bits).
-            if (pixelIndex % 8 == 0) {
-                currentByte = data[valueIndex++];
-                bitIndex = 7;
+            // Expand a whole byte (8 pixels) at a time.
+            int currentByte = data[valueIndex++];
+            int end = Math.min(pixelIndex + 8, numOfPixels);
+            for (int bitIndex = 7; pixelIndex < end; bitIndex--) {
+                pixels[pixelIndex++] = bitToBnW((currentByte >> bitIndex) & 0x01);
             }
-            pixels[pixelIndex++] = bitToBnW((currentByte >> bitIndex-- ) & 0x01);
         }
 
         if (pixelIndex != numOfPixels) {
@@ -305,6 +307,12 @@ class IconLoader extends Handler {
         int numOfPixels = width * height;
         int[] pixels = new int[numOfPixels];
 
+        // Resolve the colour lookup table once instead of once per pixel.
+        int[] palette = new int[clut.length / CLUT_ENTRY_SIZE];
+        for (int i = 0, clutIndex = 0; i < palette.length; i++, clutIndex += CLUT_ENTRY_SIZE) {
+            palette[i] = Color.rgb(clut[clutIndex], clut[clutIndex + 1], clut[clutIndex + 2]);
+        }
+
         valueIndex = 6;
         int pixelIndex = 0;
         int bitsStartOffset = 8 - bitsPerImg;
@@ -319,9 +327,7 @@ class IconLoader extends Handler {
                 bitIndex = bitsOverlaps ? (bitsStartOffset) : (bitIndex * -1);
             }
             int clutEntry = ((currentByte >> bitIndex) & mask);
-            int clutIndex = clutEntry * CLUT_ENTRY_SIZE;
-            pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
-                    clut[clutIndex + 1], clut[clutIndex + 2]);
+            pixels[pixelIndex++] = palette[clutEntry];
             bitIndex -= bitsPerImg;
         }
 
@@ -372,7 +378,10 @@ class IconLoader extends Handler {
             sThread.quit();
             sThread = null;
         }
-        mIconsCache = null;
+        if (mIconsCache != null) {
+            mIconsCache.evictAll();
+            mIconsCache = null;
+        }
         sLoader = null;
     }
 }
@@ -24,10 +24,8 @@ import com.android.internal.telephony.GsmAlphabet;
 import com.android.internal.telephony.cat.Duration.TimeUnit;
 import com.android.internal.telephony.uicc.IccUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 
@@ -376,16 +374,18 @@ public abstract class ValueParser {
             int length = ctlv.getLength();
             if (length != 0) {
                 try {
-                    byte[] pdu = Arrays.copyOfRange(rawValue, valueIndex, (valueIndex + length));
-                    ByteArrayOutputStream bo = new ByteArrayOutputStream(pdu.length + 1);
                     /* Framework's TPdu Parser expects the TPdu be prepended with SC-Address.
                      * else the parser will throw an exception. So prepending TPdu with 0,
                      * which indicates that there is no SC address and its length is 0.
                      * This way Parser will skip parsing for SC-Address
                      */
-                    bo.write(0x00);
-                    bo.write(pdu, 0, pdu.length);
-                    byte[] frameworkPdu = bo.toByteArray();
+                    if (valueIndex > rawValue.length) {
+                        throw new IndexOutOfBoundsException();
+                    }
+                    byte[] frameworkPdu = new byte[length + 1];
+                    frameworkPdu[0] = 0x00;
+                    System.arraycopy(rawValue, valueIndex, frameworkPdu, 1,
+                            Math.min(length, rawValue.length - valueIndex));
                     //ToDO handle for 3GPP2 format bug: b/243123533
                     SmsMessage message = SmsMessage.createFromPdu(frameworkPdu,
                             SmsMessage.FORMAT_3GPP);
@@ -92,6 +92,7 @@ import android.util.SparseBooleanArray;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.ServiceStateTracker;
 import com.android.internal.telephony.SlidingWindowEventCounter;
 import com.android.internal.telephony.TelephonyCapabilities;
 import com.android.internal.telephony.TelephonyComponentFactory;
@@ -221,6 +222,12 @@ public class DataNetworkController extends Handler {
     /** Event for tracking data phone switch. */
     private static final int EVENT_ACTIVE_PHONE_SWITCH = 26;
 
+    /** The service state fields read by {@link #onServiceStateChanged()}. */
+    private static final int SERVICE_STATE_FIELDS =
+            ServiceStateTracker.SERVICE_STATE_FIELD_DATA_REGISTRATION
+                    | ServiceStateTracker.SERVICE_STATE_FIELD_VOICE_REGISTRATION
+                    | ServiceStateTracker.SERVICE_STATE_FIELD_ROAMING;
+
     /** The supported IMS features. This is for IMS graceful tear down support. */
     private static final Collection<Integer> SUPPORTED_IMS_FEATURES =
             List.of(ImsFeature.FEATURE_MMTEL, ImsFeature.FEATURE_RCS);
@@ -1117,8 +1124,10 @@ public class DataNetworkController extends Handler {
             }
         });
 
+        // Only the registration info, roaming state and voice network type are read from the
+        // service state, see onServiceStateChanged().
         mPhone.getServiceStateTracker().registerForServiceStateChanged(this,
-                EVENT_SERVICE_STATE_CHANGED, null);
+                EVENT_SERVICE_STATE_CHANGED, null, SERVICE_STATE_FIELDS);
         mDataConfigManager.registerCallback(new DataConfigManagerCallback(this::post) {
             @Override
             public void onCarrierConfigChanged() {
@@ -1140,7 +1149,7 @@ public class DataNetworkController extends Handler {
 
         if (!mAccessNetworksManager.isInLegacyMode()) {
             mPhone.getServiceStateTracker().registerForServiceStateChanged(this,
-                    EVENT_SERVICE_STATE_CHANGED, null);
+                    EVENT_SERVICE_STATE_CHANGED, null, SERVICE_STATE_FIELDS);
             mDataServiceManagers.get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN)
                     .registerForServiceBindingChanged(this, EVENT_DATA_SERVICE_BINDING_CHANGED);
         }
@@ -3995,9 +4004,9 @@ public class DataNetworkController extends Handler {
     /**
      * Called when service state changed.
      */
-    // Note that this is only called when data RAT or data registration changed. If we need to know
-    // more "changed" events other than data RAT and data registration state, we should add
-    // a new listening ServiceStateTracker.registerForServiceStateChanged().
+    // Note that this is only called when the registration info, roaming state or voice network
+    // type changed. If we need to read other service state fields, they should be added to
+    // SERVICE_STATE_FIELDS.
     protected void onServiceStateChanged() {
         // Use the raw service state instead of the mPhone.getServiceState().
         ServiceState newServiceState = mPhone.getServiceStateTracker().getServiceState();
@@ -17,6 +17,7 @@
 package com.android.internal.telephony.emergency;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -43,6 +44,7 @@ import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.LocalLog;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.LocaleTracker;
@@ -62,6 +64,7 @@ import com.android.phone.ecc.nano.ProtobufEccData.EccInfo;
 import com.android.telephony.Rlog;
 
 import com.google.i18n.phonenumbers.ShortNumberInfo;
+import com.google.protobuf.nano.MessageNano;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
@@ -128,11 +131,161 @@ public class EmergencyNumberTracker extends Handler {
 
     private static final String EMERGENCY_NUMBER_DB_ASSETS_FILE = "eccdata";
 
+    private static final Object sEccDatabaseLock = new Object();
+    /**
+     * The asset emergency number database, indexed by country once it is first read and shared
+     * by the trackers of all phones.
+     */
+    @VisibleForTesting
+    @GuardedBy("sEccDatabaseLock")
+    static EccDatabase sAssetEccDatabase;
+    /**
+     * The OTA emergency number database, indexed by country once it is first read and shared by
+     * the trackers of all phones.
+     */
+    @VisibleForTesting
+    @GuardedBy("sEccDatabaseLock")
+    static EccDatabase sOtaEccDatabase;
+
+    /**
+     * An emergency number database that has been decompressed and split by country once. Each
+     * country is kept in its encoded form and only that country is decoded on a country change,
+     * instead of reading, decompressing and parsing the whole database every time.
+     */
+    @VisibleForTesting
+    static final class EccDatabase {
+        /** The database revision. */
+        final int mRevision;
+        /** The encoded {@link ProtobufEccData.CountryInfo}s keyed by upper-case ISO code. */
+        private final Map<String, byte[]> mCountries;
+        /** The file the database was read from with its size and modification time, if any. */
+        @Nullable private final File mSourceFile;
+        private final long mSourceLength;
+        private final long mSourceLastModified;
+
+        private EccDatabase(int revision, Map<String, byte[]> countries, @Nullable File sourceFile,
+                long sourceLength, long sourceLastModified) {
+            mRevision = revision;
+            mCountries = countries;
+            mSourceFile = sourceFile;
+            mSourceLength = sourceLength;
+            mSourceLastModified = sourceLastModified;
+        }
+
+        /**
+         * Read and index a gzipped database.
+         *
+         * @param inputStream the gzipped database.
+         * @param sourceFile the file the database is read from, or {@code null} for an asset.
+         * @return the database indexed by country.
+         * @throws IOException if the database cannot be read or parsed.
+         */
+        static EccDatabase parseFrom(InputStream inputStream, @Nullable File sourceFile)
+                throws IOException {
+            // Stamp the file before reading it, so that a concurrent update is detected later.
+            long sourceLength = sourceFile == null ? 0 : sourceFile.length();
+            long sourceLastModified = sourceFile == null ? 0 : sourceFile.lastModified();
+            ProtobufEccData.AllInfo allEccMessages;
+            try (GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
+                allEccMessages = ProtobufEccData.AllInfo.parseFrom(
+                        readInputStreamToByteArray(gzipInputStream));
+            }
+            Map<String, byte[]> countries = new ArrayMap<>(allEccMessages.countries.length);
+            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
+                countries.put(countryEccInfo.isoCode,
+                        MessageNano.toByteArray(countryEccInfo));
+            }
+            return new EccDatabase(allEccMessages.revision, countries, sourceFile, sourceLength,
+                    sourceLastModified);
+        }
+
+        /**
+         * @return whether this database was read from the given file and the file has not been
+         *         modified since.
+         */
+        boolean isIndexOf(File file) {
+            return file.equals(mSourceFile) && file.length() == mSourceLength
+                    && file.lastModified() == mSourceLastModified;
+        }
+
+        /**
+         * Decode the emergency numbers of a country.
+         *
+         * @param countryIso the country ISO code.
+         * @return the emergency numbers of the country; empty if the country is not present.
+         * @throws IOException if the country entry cannot be parsed.
+         */
+        EccInfo[] getEccs(String countryIso) throws IOException {
+            byte[] country = mCountries.get(countryIso.toUpperCase(Locale.ROOT));
+            if (country == null) {
+                return new EccInfo[0];
+            }
+            return ProtobufEccData.CountryInfo.parseFrom(country).eccs;
+        }
+    }
+
+    /**
+     * @return the asset emergency number database, read and indexed on first use.
+     * @throws IOException if the asset cannot be read or parsed.
+     */
+    private static EccDatabase getAssetEccDatabase(Context context) throws IOException {
+        synchronized (sEccDatabaseLock) {
+            if (sAssetEccDatabase == null) {
+                // The asset cannot change while the process is running, so index it only once.
+                try (BufferedInputStream inputStream = new BufferedInputStream(
+                        context.getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE))) {
+                    sAssetEccDatabase = EccDatabase.parseFrom(inputStream, null);
+                }
+            }
+            return sAssetEccDatabase;
+        }
+    }
+
+    /**
+     * @return the OTA emergency number database of the given file, read and indexed again only
+     *         if the file has changed since it was last indexed.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    private static EccDatabase getOtaEccDatabase(File file) throws IOException {
+        synchronized (sEccDatabaseLock) {
+            if (sOtaEccDatabase == null || !sOtaEccDatabase.isIndexOf(file)) {
+                sOtaEccDatabase = null;
+                // try-with-resource. Those 2 streams are all auto closeable.
+                try (FileInputStream fileInputStream = new FileInputStream(file);
+                     BufferedInputStream inputStream = new BufferedInputStream(fileInputStream)) {
+                    sOtaEccDatabase = EccDatabase.parseFrom(inputStream, file);
+                }
+            }
+            return sOtaEccDatabase;
+        }
+    }
+
+    /** Drop the indexed OTA database, so that it is read again on next use. */
+    private static void clearOtaEccDatabase() {
+        synchronized (sEccDatabaseLock) {
+            sOtaEccDatabase = null;
+        }
+    }
+
+    /** Drop the indexed asset and OTA databases. */
+    @VisibleForTesting
+    static void clearEccDatabases() {
+        synchronized (sEccDatabaseLock) {
+            sAssetEccDatabase = null;
+            sOtaEccDatabase = null;
+        }
+    }
+
     private List<EmergencyNumber> mEmergencyNumberListFromDatabase = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromRadio = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListWithPrefix = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromTestMode = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberList = new ArrayList<>();
+    /**
+     * Index of {@link #mEmergencyNumberList} by number, rebuilt whenever the merged list changes.
+     * The entries of a number keep their order in the merged list.
+     */
+    private Map<String, List<EmergencyNumber>> mEmergencyNumberIndex = new ArrayMap<>();
 
     private final LocalLog mEmergencyNumberListDatabaseLocalLog = new LocalLog(16);
     private final LocalLog mEmergencyNumberListRadioLocalLog = new LocalLog(16);
@@ -546,27 +699,19 @@ public class EmergencyNumberTracker extends Handler {
 
         // Read the Asset emergency number database
         List<EmergencyNumber> updatedAssetEmergencyNumberList = new ArrayList<>();
-        // try-with-resource. The 2 streams are auto closeable.
-        try (BufferedInputStream inputStream = new BufferedInputStream(
-                mPhone.getContext().getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE));
-             GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-            ProtobufEccData.AllInfo allEccMessages = ProtobufEccData.AllInfo.parseFrom(
-                    readInputStreamToByteArray(gzipInputStream));
-            assetsDatabaseVersion = allEccMessages.revision;
+        try {
+            EccDatabase assetEccDatabase = getAssetEccDatabase(mPhone.getContext());
+            assetsDatabaseVersion = assetEccDatabase.mRevision;
             logd(countryIso + " asset emergency database is loaded. Ver: " + assetsDatabaseVersion
                     + " Phone Id: " + mPhone.getPhoneId() + " countryIso: " + countryIso);
-            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
-                if (countryEccInfo.isoCode.equals(countryIso.toUpperCase(Locale.ROOT))) {
-                    for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
-                        int emergencyCallRouting = EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
-                        if (!shouldEmergencyNumberRoutingFromDbBeIgnored()) {
-                            emergencyCallRouting = getRoutingInfoFromDB(eccInfo,
-                                    assetNormalRoutedNumbers);
-                        }
-                        updatedAssetEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
-                                eccInfo, countryIso, emergencyCallRouting));
-                    }
+            for (EccInfo eccInfo : assetEccDatabase.getEccs(countryIso)) {
+                int emergencyCallRouting = EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
+                if (!shouldEmergencyNumberRoutingFromDbBeIgnored()) {
+                    emergencyCallRouting = getRoutingInfoFromDB(eccInfo,
+                            assetNormalRoutedNumbers);
                 }
+                updatedAssetEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
+                        eccInfo, countryIso, emergencyCallRouting));
             }
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(updatedAssetEmergencyNumberList);
         } catch (IOException ex) {
@@ -593,7 +738,6 @@ public class EmergencyNumberTracker extends Handler {
     }
 
     private int cacheOtaEmergencyNumberDatabase() {
-        ProtobufEccData.AllInfo allEccMessages = null;
         int otaDatabaseVersion = INVALID_DATABASE_VERSION;
         Map<String, Set<String>> otaNormalRoutedNumbers = new ArrayMap<>();
 
@@ -614,27 +758,19 @@ public class EmergencyNumberTracker extends Handler {
             }
         }
 
-        // try-with-resource. Those 3 streams are all auto closeable.
-        try (FileInputStream fileInputStream = new FileInputStream(file);
-             BufferedInputStream inputStream = new BufferedInputStream(fileInputStream);
-             GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-            allEccMessages = ProtobufEccData.AllInfo.parseFrom(
-                    readInputStreamToByteArray(gzipInputStream));
+        try {
+            EccDatabase otaEccDatabase = getOtaEccDatabase(file);
             String countryIso = getLastKnownEmergencyCountryIso();
+            otaDatabaseVersion = otaEccDatabase.mRevision;
             logd(countryIso + " ota emergency database is loaded. Ver: " + otaDatabaseVersion);
-            otaDatabaseVersion = allEccMessages.revision;
-            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
-                if (countryEccInfo.isoCode.equals(countryIso.toUpperCase(Locale.ROOT))) {
-                    for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
-                        int emergencyCallRouting = EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
-                        if (!shouldEmergencyNumberRoutingFromDbBeIgnored()) {
-                            emergencyCallRouting = getRoutingInfoFromDB(eccInfo,
-                                    otaNormalRoutedNumbers);
-                        }
-                        updatedOtaEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
-                                eccInfo, countryIso, emergencyCallRouting));
-                    }
+            for (EccInfo eccInfo : otaEccDatabase.getEccs(countryIso)) {
+                int emergencyCallRouting = EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
+                if (!shouldEmergencyNumberRoutingFromDbBeIgnored()) {
+                    emergencyCallRouting = getRoutingInfoFromDB(eccInfo,
+                            otaNormalRoutedNumbers);
                 }
+                updatedOtaEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
+                        eccInfo, countryIso, emergencyCallRouting));
             }
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(updatedOtaEmergencyNumberList);
         } catch (IOException ex) {
@@ -723,11 +859,13 @@ public class EmergencyNumberTracker extends Handler {
             ParcelFileDescriptor otaParcelableFileDescriptor) {
         logd("overrideOtaEmergencyNumberDbFilePath:" + otaParcelableFileDescriptor);
         mOverridedOtaDbParcelFileDescriptor = otaParcelableFileDescriptor;
+        clearOtaEccDatabase();
     }
 
     private void updateOtaEmergencyNumberListDatabaseAndNotify() {
         logd("updateOtaEmergencyNumberListDatabaseAndNotify():"
                 + " receiving Emegency Number database OTA update");
+        clearOtaEccDatabase();
         mCurrentOtaDatabaseVersion = cacheOtaEmergencyNumberDatabase();
         if (mCurrentOtaDatabaseVersion != INVALID_DATABASE_VERSION) {
             writeUpdatedEmergencyNumberListMetrics(mEmergencyNumberListFromDatabase);
@@ -800,6 +938,49 @@ public class EmergencyNumberTracker extends Handler {
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(mergedEmergencyNumberList, true);
         }
         mEmergencyNumberList = mergedEmergencyNumberList;
+        mEmergencyNumberIndex = buildEmergencyNumberIndex(mergedEmergencyNumberList);
+    }
+
+    /**
+     * Build the index of the given emergency numbers by number.
+     *
+     * @param emergencyNumbers the merged emergency number list.
+     * @return the emergency numbers grouped by number, in list order.
+     */
+    private static Map<String, List<EmergencyNumber>> buildEmergencyNumberIndex(
+            List<EmergencyNumber> emergencyNumbers) {
+        Map<String, List<EmergencyNumber>> index = new ArrayMap<>(emergencyNumbers.size());
+        for (EmergencyNumber num : emergencyNumbers) {
+            List<EmergencyNumber> entries = index.get(num.getNumber());
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                index.put(num.getNumber(), entries);
+            }
+            entries.add(num);
+        }
+        return index;
+    }
+
+    /**
+     * Get the {@link EmergencyNumber}s with the given number from the current emergency number
+     * list. The index is only used when the list is the merged one and no routing adjustment is
+     * needed; otherwise the complete list is scanned.
+     *
+     * @param number the emergency number with separators stripped.
+     * @return the matching emergency numbers in list order; empty if none.
+     */
+    private List<EmergencyNumber> findEmergencyNumbers(String number) {
+        if (!mEmergencyNumberListFromRadio.isEmpty() && !shouldAdjustForRouting()) {
+            List<EmergencyNumber> entries = mEmergencyNumberIndex.get(number);
+            return entries == null ? Collections.emptyList() : entries;
+        }
+        List<EmergencyNumber> entries = new ArrayList<>();
+        for (EmergencyNumber num : getEmergencyNumberList()) {
+            if (num.getNumber().equals(number)) {
+                entries.add(num);
+            }
+        }
+        return entries;
     }
 
     /**
@@ -915,11 +1096,9 @@ public class EmergencyNumberTracker extends Handler {
         number = PhoneNumberUtils.extractNetworkPortionAlt(number);
 
         if (!mEmergencyNumberListFromRadio.isEmpty()) {
-            for (EmergencyNumber num : mEmergencyNumberList) {
-                if (num.getNumber().equals(number)) {
-                    logd("Found in mEmergencyNumberList");
-                    return true;
-                }
+            if (mEmergencyNumberIndex.containsKey(number)) {
+                logd("Found in mEmergencyNumberList");
+                return true;
             }
             return false;
         } else {
@@ -941,12 +1120,8 @@ public class EmergencyNumberTracker extends Handler {
      */
     public EmergencyNumber getEmergencyNumber(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                return num;
-            }
-        }
-        return null;
+        List<EmergencyNumber> entries = findEmergencyNumbers(emergencyNumber);
+        return entries.isEmpty() ? null : entries.get(0);
     }
 
     /**
@@ -960,10 +1135,7 @@ public class EmergencyNumberTracker extends Handler {
      * @return the list of emergency numbers matching.
      */
     public List<EmergencyNumber> getEmergencyNumbers(String emergencyNumber) {
-        final String toFind = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        return getEmergencyNumberList().stream()
-                .filter(num -> num.getNumber().equals(toFind))
-                .toList();
+        return List.copyOf(findEmergencyNumbers(PhoneNumberUtils.stripSeparators(emergencyNumber)));
     }
 
     /**
@@ -977,12 +1149,10 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyServiceCategories int getEmergencyServiceCategories(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
-                        || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
-                    return num.getEmergencyServiceCategoryBitmask();
-                }
+        for (EmergencyNumber num : findEmergencyNumbers(emergencyNumber)) {
+            if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
+                    || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
+                return num.getEmergencyServiceCategoryBitmask();
             }
         }
         return EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED;
@@ -997,11 +1167,9 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyCallRouting int getEmergencyCallRouting(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
-                    return num.getEmergencyCallRouting();
-                }
+        for (EmergencyNumber num : findEmergencyNumbers(emergencyNumber)) {
+            if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
+                return num.getEmergencyCallRouting();
             }
         }
         return EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
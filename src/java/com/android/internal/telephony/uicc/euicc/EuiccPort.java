@@ -74,6 +74,10 @@ public class EuiccPort extends UiccPort {
     // APDU status for SIM refresh
     private static final int APDU_ERROR_SIM_REFRESH = 0x6F00;
 
+    // How long the ISD-R logical channel is kept open after an operation, so that consecutive
+    // operations (e.g. while browsing or downloading profiles) don't reopen it.
+    private static final long CHANNEL_IDLE_TIMEOUT_MS = 3000;
+
     // These error codes are defined in GSMA SGP.22. 0 is the code for success.
     private static final int CODE_OK = 0;
 
@@ -126,6 +130,20 @@ public class EuiccPort extends UiccPort {
     private final ApduSender mApduSender;
     private EuiccSpecVersion mSpecVersion;
     private volatile String mEid;
+
+    // Cached card metadata, guarded by mLock. The profile list and EUICCInfo2 are cleared by every
+    // operation that may change profiles, both when it is sent and when it completes, and
+    // mMetadataGeneration is bumped so that responses of requests sent before the change are not
+    // cached. EUICCInfo1 and the Rules Authorisation Table
+    // don't change for the lifetime of the card.
+    private int mMetadataGeneration;
+    private EuiccProfileInfo[] mCachedProfiles;
+    private MultipleEnabledProfilesMode mCachedProfilesMepMode;
+    private byte[] mCachedEuiccInfo1;
+    private byte[] mCachedEuiccInfo2;
+    private EuiccRulesAuthTable mCachedRulesAuthTable;
+    private int mMetadataCacheHits;
+    private int mMetadataCacheMisses;
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
     public MultipleEnabledProfilesMode mSupportedMepMode;
 
@@ -135,6 +153,7 @@ public class EuiccPort extends UiccPort {
         // TODO: Set supportExtendedApdu based on ATR.
         mApduSender = new ApduSender(c, phoneId, ci, ISD_R_AID,
                               false /* supportExtendedApdu */);
+        mApduSender.setChannelIdleTimeoutMillis(CHANNEL_IDLE_TIMEOUT_MS);
         if (TextUtils.isEmpty(ics.eid)) {
             loge("no eid given in constructor for phone " + phoneId);
         } else {
@@ -164,8 +183,13 @@ public class EuiccPort extends UiccPort {
             if (!TextUtils.isEmpty(ics.eid)) {
                 mEid = ics.eid;
             }
+            // The card may have switched profiles by itself, e.g. through a REFRESH.
+            invalidateMetadataCacheLocked();
             super.update(c, ci, ics, uiccCard);
         }
+        // A reset or refresh of the card drops its logical channels, so don't hand a channel
+        // kept open before the status change to the next operation.
+        mApduSender.closeIdleChannel();
     }
 
     /**
@@ -185,7 +209,18 @@ public class EuiccPort extends UiccPort {
      * @since 1.1.0 [GSMA SGP.22]
      */
     public void getAllProfiles(AsyncResultCallback<EuiccProfileInfo[]> callback, Handler handler) {
-        byte[] profileTags = mSupportedMepMode.isMepMode() ? Tags.EUICC_PROFILE_MEP_TAGS
+        MultipleEnabledProfilesMode mepMode = mSupportedMepMode;
+        int generation;
+        synchronized (mLock) {
+            if (mCachedProfiles != null && mCachedProfilesMepMode == mepMode) {
+                mMetadataCacheHits++;
+                AsyncResultHelper.returnResult(mCachedProfiles.clone(), callback, handler);
+                return;
+            }
+            mMetadataCacheMisses++;
+            generation = mMetadataGeneration;
+        }
+        byte[] profileTags = mepMode.isMepMode() ? Tags.EUICC_PROFILE_MEP_TAGS
                 : Tags.EUICC_PROFILE_TAGS;
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
@@ -213,6 +248,12 @@ public class EuiccPort extends UiccPort {
                         EuiccProfileInfo profile = profileBuilder.build();
                         profiles[profileCount++] = profile;
                     }
+                    synchronized (mLock) {
+                        if (generation == mMetadataGeneration) {
+                            mCachedProfiles = profiles.clone();
+                            mCachedProfilesMepMode = mepMode;
+                        }
+                    }
                     return profiles;
                 },
                 callback, handler);
@@ -265,6 +306,7 @@ public class EuiccPort extends UiccPort {
      */
     public void disableProfile(String iccid, boolean refresh, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateMetadataCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -290,7 +332,7 @@ public class EuiccPort extends UiccPort {
                                     EuiccCardErrorException.OPERATION_DISABLE_PROFILE, result);
                     }
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -304,6 +346,7 @@ public class EuiccPort extends UiccPort {
      */
     public void switchToProfile(String iccid, boolean refresh, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateMetadataCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -338,7 +381,7 @@ public class EuiccPort extends UiccPort {
                                     EuiccCardErrorException.OPERATION_SWITCH_TO_PROFILE, result);
                     }
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -387,6 +430,7 @@ public class EuiccPort extends UiccPort {
      */
     public void setNickname(String iccid, String nickname, AsyncResultCallback<Void> callback,
             Handler handler) {
+        invalidateMetadataCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_SET_NICKNAME)
@@ -403,7 +447,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -414,6 +458,7 @@ public class EuiccPort extends UiccPort {
      * @since 1.1.0 [GSMA SGP.22]
      */
     public void deleteProfile(String iccid, AsyncResultCallback<Void> callback, Handler handler) {
+        invalidateMetadataCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
@@ -430,7 +475,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -443,6 +488,7 @@ public class EuiccPort extends UiccPort {
      */
     public void resetMemory(@EuiccCardManager.ResetOption int options,
             AsyncResultCallback<Void> callback, Handler handler) {
+        invalidateMetadataCache();
         sendApduWithSimResetErrorWorkaround(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_EUICC_MEMORY_RESET)
@@ -456,7 +502,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return null;
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -529,6 +575,16 @@ public class EuiccPort extends UiccPort {
      */
     public void getRulesAuthTable(AsyncResultCallback<EuiccRulesAuthTable> callback,
             Handler handler) {
+        int generation;
+        synchronized (mLock) {
+            if (mCachedRulesAuthTable != null) {
+                mMetadataCacheHits++;
+                AsyncResultHelper.returnResult(mCachedRulesAuthTable, callback, handler);
+                return;
+            }
+            mMetadataCacheMisses++;
+            generation = mMetadataGeneration;
+        }
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_RAT)
@@ -552,7 +608,13 @@ public class EuiccPort extends UiccPort {
                                 Arrays.asList(opIds), node.getChild(Tags.TAG_SEQUENCE,
                                         Tags.TAG_CTX_2).asBits());
                     }
-                    return builder.build();
+                    EuiccRulesAuthTable rat = builder.build();
+                    synchronized (mLock) {
+                        if (generation == mMetadataGeneration) {
+                            mCachedRulesAuthTable = rat;
+                        }
+                    }
+                    return rat;
                 },
                 callback, handler);
     }
@@ -583,11 +645,28 @@ public class EuiccPort extends UiccPort {
      * @since 2.0.0 [GSMA SGP.22]
      */
     public void getEuiccInfo1(AsyncResultCallback<byte[]> callback, Handler handler) {
+        int generation;
+        synchronized (mLock) {
+            if (mCachedEuiccInfo1 != null) {
+                mMetadataCacheHits++;
+                AsyncResultHelper.returnResult(mCachedEuiccInfo1.clone(), callback, handler);
+                return;
+            }
+            mMetadataCacheMisses++;
+            generation = mMetadataGeneration;
+        }
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EUICC_INFO_1)
                                 .build().toHex())),
-                (response) -> response,
+                (response) -> {
+                    synchronized (mLock) {
+                        if (generation == mMetadataGeneration) {
+                            mCachedEuiccInfo1 = response.clone();
+                        }
+                    }
+                    return response;
+                },
                 callback, handler);
     }
 
@@ -600,11 +679,28 @@ public class EuiccPort extends UiccPort {
      * @since 2.0.0 [GSMA SGP.22]
      */
     public void getEuiccInfo2(AsyncResultCallback<byte[]> callback, Handler handler) {
+        int generation;
+        synchronized (mLock) {
+            if (mCachedEuiccInfo2 != null) {
+                mMetadataCacheHits++;
+                AsyncResultHelper.returnResult(mCachedEuiccInfo2.clone(), callback, handler);
+                return;
+            }
+            mMetadataCacheMisses++;
+            generation = mMetadataGeneration;
+        }
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EUICC_INFO_2)
                                 .build().toHex())),
-                (response) -> response,
+                (response) -> {
+                    synchronized (mLock) {
+                        if (generation == mMetadataGeneration) {
+                            mCachedEuiccInfo2 = response.clone();
+                        }
+                    }
+                    return response;
+                },
                 callback, handler);
     }
 
@@ -716,6 +812,7 @@ public class EuiccPort extends UiccPort {
      */
     public void loadBoundProfilePackage(byte[] boundProfilePackage,
             AsyncResultCallback<byte[]> callback, Handler handler) {
+        invalidateMetadataCache();
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) -> {
                     Asn1Node bppNode = new Asn1Decoder(boundProfilePackage).nextNode();
@@ -823,7 +920,7 @@ public class EuiccPort extends UiccPort {
                     }
                     return true;
                 },
-                callback, handler);
+                invalidateMetadataCacheOnCompletion(callback), handler);
     }
 
     /**
@@ -1164,7 +1261,7 @@ public class EuiccPort extends UiccPort {
             Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                null, callback, handler);
+                null, callback, handler, false /* closeChannelAfterRequest */);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
@@ -1173,7 +1270,8 @@ public class EuiccPort extends UiccPort {
             AsyncResultCallback<T> callback, Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                intermediateResultHandler, callback, handler);
+                intermediateResultHandler, callback, handler,
+                false /* closeChannelAfterRequest */);
     }
 
     /**
@@ -1188,6 +1286,8 @@ public class EuiccPort extends UiccPort {
     private void sendApduWithSimResetErrorWorkaround(
             RequestProvider requestBuilder, ApduResponseHandler<Void> responseHandler,
             AsyncResultCallback<Void> callback, Handler handler) {
+        // These operations may refresh the SIM, which drops all logical channels. Close the
+        // channel before it can be handed to the next operation.
         sendApdu(requestBuilder, responseHandler, (e) -> {
             if (e instanceof ApduException
                     && ((ApduException) e).getApduStatus() == APDU_ERROR_SIM_REFRESH) {
@@ -1196,7 +1296,7 @@ public class EuiccPort extends UiccPort {
             } else {
                 callback.onException(new EuiccCardException("Cannot send APDU.", e));
             }
-        }, null, callback, handler);
+        }, null, callback, handler, true /* closeChannelAfterRequest */);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
@@ -1204,7 +1304,8 @@ public class EuiccPort extends UiccPort {
             ApduExceptionHandler exceptionHandler,
             @Nullable ApduIntermediateResultHandler intermediateResultHandler,
             AsyncResultCallback<T> callback,
-            Handler handler) {
+            Handler handler,
+            boolean closeChannelAfterRequest) {
         mApduSender.send(requestBuilder, new ApduSenderResultCallback() {
             @Override
             public void onResult(byte[] response) {
@@ -1230,7 +1331,7 @@ public class EuiccPort extends UiccPort {
             public void onException(Throwable e) {
                 exceptionHandler.handleException(e);
             }
-        }, handler);
+        }, handler, closeChannelAfterRequest);
     }
 
     private static void buildProfile(Asn1Node profileNode, EuiccProfileInfo.Builder profileBuilder)
@@ -1424,6 +1525,48 @@ public class EuiccPort extends UiccPort {
         }
     }
 
+    private void invalidateMetadataCache() {
+        synchronized (mLock) {
+            invalidateMetadataCacheLocked();
+        }
+    }
+
+    /**
+     * Wrap the callback of an operation that may change profiles so that the metadata cache is
+     * invalidated again when the operation completes. A read that was queued after the first
+     * invalidation may have reached the card before the operation, and its result must not
+     * outlive the operation.
+     */
+    private <T> AsyncResultCallback<T> invalidateMetadataCacheOnCompletion(
+            AsyncResultCallback<T> callback) {
+        return new AsyncResultCallback<T>() {
+            @Override
+            public void onResult(T result) {
+                invalidateMetadataCache();
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                invalidateMetadataCache();
+                callback.onException(e);
+            }
+        };
+    }
+
+    private void invalidateMetadataCacheLocked() {
+        mMetadataGeneration++;
+        mCachedProfiles = null;
+        mCachedProfilesMepMode = null;
+        mCachedEuiccInfo2 = null;
+    }
+
+    @Override
+    public void dispose() {
+        mApduSender.closeIdleChannel();
+        super.dispose();
+    }
+
     @Override
     public void dump(FileDescriptor fd, PrintWriter printWriter, String[] args) {
         super.dump(fd, printWriter, args);
@@ -1432,6 +1575,11 @@ public class EuiccPort extends UiccPort {
         pw.increaseIndent();
         pw.println("mEid=" + mEid);
         pw.println("mSupportedMepMode=" + mSupportedMepMode);
+        synchronized (mLock) {
+            pw.println("metadata cache: hits=" + mMetadataCacheHits + ", misses="
+                    + mMetadataCacheMisses + ", profilesCached=" + (mCachedProfiles != null)
+                    + ", euiccInfo2Cached=" + (mCachedEuiccInfo2 != null));
+        }
         pw.decreaseIndent();
     }
 }
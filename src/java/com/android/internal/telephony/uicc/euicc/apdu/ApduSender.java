@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.telephony.IccOpenLogicalChannelResponse;
 import android.util.Base64;
@@ -43,6 +44,10 @@ import java.util.NoSuchElementException;
  * {@link #STATUS_NO_ERROR}) or causing an exception, an {@link ApduException} will be returned
  * immediately without sending the rest of commands. This class is thread-safe.
  *
+ * <p>If a channel idle timeout is set with {@link #setChannelIdleTimeoutMillis(long)}, the logical
+ * channel is kept open after a successful request and reused by the next request sent within the
+ * timeout, which saves the open/close round trips between consecutive eUICC operations.
+ *
  * @hide
  */
 public class ApduSender {
@@ -82,6 +87,18 @@ public class ApduSender {
     // time for an AID.
     private final Object mChannelLock = new Object();
     private boolean mChannelOpened;
+    // The logical channel kept open between requests and its select response. Guarded by
+    // mChannelLock.
+    private int mIdleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+    private byte[] mIdleSelectResponse;
+    private Handler mIdleChannelHandler;
+    private long mChannelIdleTimeoutMs;
+    private final Runnable mCloseIdleChannelRunnable = this::closeIdleChannel;
+
+    // Statistics of the request in flight. Only one request can use the channel at a time.
+    private long mRequestStartTimeMs;
+    private int mRequestApduCount;
+    private long mRequestBytes;
 
     /**
      * @param aid The AID that will be used to open a logical channel to.
@@ -99,6 +116,42 @@ public class ApduSender {
         closeExistingChannelIfExists();
     }
 
+    /**
+     * Sets how long the logical channel is kept open after a successful request so that it can be
+     * reused by the next request. A value of 0 (the default) closes the channel after each
+     * request.
+     */
+    public void setChannelIdleTimeoutMillis(long timeoutMs) {
+        synchronized (mChannelLock) {
+            mChannelIdleTimeoutMs = timeoutMs;
+        }
+        if (timeoutMs <= 0) {
+            closeIdleChannel();
+        }
+    }
+
+    /**
+     * Closes the logical channel kept open after the last request, if any. Does nothing if the
+     * channel is in use.
+     */
+    public void closeIdleChannel() {
+        int channel;
+        Handler handler;
+        synchronized (mChannelLock) {
+            if (mChannelOpened || mIdleChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                return;
+            }
+            channel = mIdleChannel;
+            handler = mIdleChannelHandler;
+            handler.removeCallbacks(mCloseIdleChannelRunnable);
+            clearIdleChannelLocked();
+            mChannelOpened = true;
+        }
+        logv("Closing idle channel: " + channel);
+        closeAndReturn(channel, null /* response */, null /* exception */,
+                null /* resultCallback */, handler);
+    }
+
     /**
      * Sends APDU commands.
      *
@@ -115,6 +168,25 @@ public class ApduSender {
             RequestProvider requestProvider,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
+        send(requestProvider, resultCallback, handler, false /* closeAfterRequest */);
+    }
+
+    /**
+     * Sends APDU commands.
+     *
+     * @param requestProvider See {@link #send(RequestProvider, ApduSenderResultCallback, Handler)}.
+     * @param resultCallback See {@link #send(RequestProvider, ApduSenderResultCallback, Handler)}.
+     * @param handler See {@link #send(RequestProvider, ApduSenderResultCallback, Handler)}.
+     * @param closeAfterRequest Whether the logical channel must be closed after the request even
+     *     if an idle timeout is set, e.g. because the request may refresh the SIM, which drops all
+     *     logical channels. The channel is closed before it is released to the next request and
+     *     before {@code resultCallback} is called.
+     */
+    public void send(
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler,
+            boolean closeAfterRequest) {
         synchronized (mChannelLock) {
             if (mChannelOpened) {
                 if (!Looper.getMainLooper().equals(Looper.myLooper())) {
@@ -138,6 +210,16 @@ public class ApduSender {
                 }
             }
             mChannelOpened = true;
+            if (mIdleChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                int channel = mIdleChannel;
+                byte[] selectResponse = mIdleSelectResponse;
+                mIdleChannelHandler.removeCallbacks(mCloseIdleChannelRunnable);
+                clearIdleChannelLocked();
+                logv("Reusing idle channel: " + channel);
+                handler.post(() -> sendRequest(channel, selectResponse, requestProvider,
+                        resultCallback, handler, closeAfterRequest));
+                return;
+            }
         }
 
         mOpenChannel.invoke(mAid, new AsyncResultCallback<IccOpenLogicalChannelResponse>() {
@@ -171,8 +253,6 @@ public class ApduSender {
                     return;
                 }
 
-                RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
-                Throwable requestException = null;
                 if (mAid.equals(ISD_R_AID)) {
                    PreferenceManager.getDefaultSharedPreferences(mContext)
                          .edit().putInt(mChannelKey, channel).apply();
@@ -180,36 +260,61 @@ public class ApduSender {
                         .edit().putString(mChannelResponseKey,
                            Base64.encodeToString(selectResponse, Base64.DEFAULT)).apply();
                 }
-                try {
-                    requestProvider.buildRequest(selectResponse, builder);
-                } catch (Throwable e) {
-                    requestException = e;
-                }
-                if (builder.getCommands().isEmpty() || requestException != null) {
-                    // Just close the channel if we don't have commands to send or an error
-                    // was encountered.
-                    closeAndReturn(channel, null /* response */, requestException, resultCallback,
-                            handler);
-                    return;
-                }
-                sendCommand(builder.getCommands(), 0 /* index */, resultCallback, handler);
+                sendRequest(channel, selectResponse, requestProvider, resultCallback, handler,
+                        closeAfterRequest);
             }
         }, handler);
     }
 
+    /**
+     * Builds the request on an opened logical channel and starts sending its commands.
+     */
+    private void sendRequest(
+            int channel,
+            byte[] selectResponse,
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler,
+            boolean closeAfterRequest) {
+        RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
+        Throwable requestException = null;
+        try {
+            requestProvider.buildRequest(selectResponse, builder);
+        } catch (Throwable e) {
+            requestException = e;
+        }
+        if (builder.getCommands().isEmpty() || requestException != null) {
+            // Just close the channel if we don't have commands to send or an error
+            // was encountered.
+            closeAndReturn(channel, null /* response */, requestException, resultCallback,
+                    handler);
+            return;
+        }
+        mRequestStartTimeMs = SystemClock.elapsedRealtime();
+        mRequestApduCount = 0;
+        mRequestBytes = 0;
+        sendCommand(selectResponse, builder.getCommands(), 0 /* index */,
+                resultCallback, handler, closeAfterRequest);
+    }
+
     /**
      * Sends the current command and then continue to send the next one. If this is the last
      * command or any error happens, {@code resultCallback} will be called.
      *
+     * @param selectResponse The select response of the channel, kept if the channel is reused.
      * @param commands All commands to be sent.
      * @param index The current command index.
+     * @param closeAfterRequest Whether the channel must be closed after the last command.
      */
     private void sendCommand(
+            byte[] selectResponse,
             List<ApduCommand> commands,
             int index,
             ApduSenderResultCallback resultCallback,
-            Handler handler) {
+            Handler handler,
+            boolean closeAfterRequest) {
         ApduCommand command = commands.get(index);
+        countApdu(command);
         mTransmitApdu.invoke(command, new AsyncResultCallback<IccIoResult>() {
             @Override
             public void onResult(IccIoResult response) {
@@ -233,11 +338,14 @@ public class ApduSender {
                                                 fullResponse);
                                 if (continueSendCommand) {
                                     // Sends the next command
-                                    sendCommand(commands, index + 1, resultCallback, handler);
+                                    sendCommand(selectResponse, commands, index + 1,
+                                            resultCallback, handler, closeAfterRequest);
                                 } else {
                                     // Returns the result of the last command
-                                    closeAndReturn(command.channel, fullResponse.payload,
-                                            null /* exception */, resultCallback, handler);
+                                    logRequestStats();
+                                    releaseOrCloseAndReturn(command.channel, selectResponse,
+                                            fullResponse.payload, resultCallback, handler,
+                                            closeAfterRequest);
                                 }
                             }
                         }, handler);
@@ -262,6 +370,7 @@ public class ApduSender {
         ByteArrayOutputStream resultBuilder =
             responseBuilder == null ? new ByteArrayOutputStream() : responseBuilder;
         if (lastResponse.payload != null) {
+            mRequestBytes += lastResponse.payload.length;
             try {
                 resultBuilder.write(lastResponse.payload);
             } catch (IOException e) {
@@ -274,9 +383,11 @@ public class ApduSender {
             return;
         }
 
+        ApduCommand getMoreResponse = new ApduCommand(channel, 0 /* cls  */,
+                INS_GET_MORE_RESPONSE, 0 /* p1 */, 0 /* p2 */, lastResponse.sw2, "" /* cmdHex */);
+        countApdu(getMoreResponse);
         mTransmitApdu.invoke(
-                new ApduCommand(channel, 0 /* cls  */, INS_GET_MORE_RESPONSE, 0 /* p1 */,
-                        0 /* p2 */, lastResponse.sw2, "" /* cmdHex */),
+                getMoreResponse,
                 new AsyncResultCallback<IccIoResult>() {
                     @Override
                     public void onResult(IccIoResult response) {
@@ -286,6 +397,55 @@ public class ApduSender {
                 }, handler);
     }
 
+    private void countApdu(ApduCommand command) {
+        mRequestApduCount++;
+        mRequestBytes += command.cmdHex.length() / 2;
+    }
+
+    private void logRequestStats() {
+        long durationMs = Math.max(1, SystemClock.elapsedRealtime() - mRequestStartTimeMs);
+        logd("Sent " + mRequestApduCount + " APDUs, " + mRequestBytes + " bytes in " + durationMs
+                + "ms (" + (mRequestApduCount * 1000L / durationMs) + " APDUs/s, "
+                + (mRequestBytes * 1000L / durationMs) + " bytes/s)");
+    }
+
+    private void clearIdleChannelLocked() {
+        mIdleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+        mIdleSelectResponse = null;
+        mIdleChannelHandler = null;
+    }
+
+    /**
+     * Keeps the logical channel open for the next request if an idle timeout is set and
+     * {@code closeAfterRequest} is false, or closes it otherwise, and returns {@code response} to
+     * {@code resultCallback}.
+     */
+    private void releaseOrCloseAndReturn(
+            int channel,
+            byte[] selectResponse,
+            @Nullable byte[] response,
+            ApduSenderResultCallback resultCallback,
+            Handler handler,
+            boolean closeAfterRequest) {
+        boolean keepOpen;
+        synchronized (mChannelLock) {
+            keepOpen = !closeAfterRequest && mChannelIdleTimeoutMs > 0;
+            if (keepOpen) {
+                mIdleChannel = channel;
+                mIdleSelectResponse = selectResponse;
+                mIdleChannelHandler = handler;
+                handler.postDelayed(mCloseIdleChannelRunnable, mChannelIdleTimeoutMs);
+                mChannelOpened = false;
+                mChannelLock.notify();
+            }
+        }
+        if (keepOpen) {
+            resultCallback.onResult(response);
+            return;
+        }
+        closeAndReturn(channel, response, null /* exception */, resultCallback, handler);
+    }
+
     /**
      * Closes the opened logical channel.
      *
@@ -293,12 +453,14 @@ public class ApduSender {
      *     after the channel has been closed.
      * @param exception If not null, this will be returned to {@code resultCallback} after the
      *     channel has been closed.
+     * @param resultCallback May be null if nothing needs to be notified, e.g. when an idle channel
+     *     is closed.
      */
     private void closeAndReturn(
             int channel,
             @Nullable byte[] response,
             @Nullable Throwable exception,
-            ApduSenderResultCallback resultCallback,
+            @Nullable ApduSenderResultCallback resultCallback,
             Handler handler) {
         mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
             @Override
@@ -314,6 +476,9 @@ public class ApduSender {
                     mChannelLock.notify();
                 }
 
+                if (resultCallback == null) {
+                    return;
+                }
                 if (exception == null) {
                     resultCallback.onResult(response);
                 } else {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockCheckerTest extends TelephonyTest {
+    private static final String NUMBER = "1234567890";
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        BlockChecker.invalidateCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BlockChecker.invalidateCache();
+        super.tearDown();
+    }
+
+    @Test
+    @SmallTest
+    public void testRepeatedLookupServedFromCache() {
+        int hits = BlockChecker.getCacheHits();
+        int misses = BlockChecker.getCacheMisses();
+
+        assertFalse(BlockChecker.isBlocked(mContext, NUMBER, null));
+        assertFalse(BlockChecker.isBlocked(mContext, NUMBER, null));
+        assertFalse(BlockChecker.isBlocked(mContext, NUMBER, null));
+
+        assertEquals(misses + 1, BlockChecker.getCacheMisses());
+        assertEquals(hits + 2, BlockChecker.getCacheHits());
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidateCache() {
+        assertFalse(BlockChecker.isBlocked(mContext, NUMBER, null));
+        mFakeBlockedNumberContentProvider.mBlockedNumbers.add(NUMBER);
+
+        BlockChecker.invalidateCache();
+
+        assertTrue(BlockChecker.isBlocked(mContext, NUMBER, null));
+    }
+
+    @Test
+    @SmallTest
+    public void testLookupWithExtrasNotCached() {
+        Bundle extras = new Bundle();
+        extras.putBoolean("test", true);
+        int hits = BlockChecker.getCacheHits();
+        int misses = BlockChecker.getCacheMisses();
+
+        assertFalse(BlockChecker.isBlocked(mContext, NUMBER, extras));
+        mFakeBlockedNumberContentProvider.mBlockedNumbers.add(NUMBER);
+        assertTrue(BlockChecker.isBlocked(mContext, NUMBER, extras));
+
+        assertEquals(hits, BlockChecker.getCacheHits());
+        assertEquals(misses, BlockChecker.getCacheMisses());
+    }
+}
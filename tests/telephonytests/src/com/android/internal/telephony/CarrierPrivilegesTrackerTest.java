@@ -71,12 +71,14 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 
+import java.lang.reflect.Field;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -112,6 +114,7 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
     private static final int UID_1 = 10000001;
     private static final int UID_2 = 10000002;
     private static final int UID_3 = 10000003;
+    private static final int UID_4 = 10000004;
     private static final int[] PRIVILEGED_UIDS = {UID_1, UID_2};
     private static final Set<Integer> PRIVILEGED_UIDS_SET = Set.of(UID_1, UID_2);
 
@@ -1108,6 +1111,97 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
         assertEquals(Process.INVALID_UID, mCarrierPrivilegesTracker.getCarrierServicePackageUid());
     }
 
+    @Test
+    public void testPackageStatusCache_packageChanges() throws Exception {
+        // Start with PACKAGE_1 & PACKAGE_2 privileged from CarrierConfig, PACKAGE_3 unprivileged
+        setupCarrierPrivilegesTrackerWithCarrierConfigUids();
+        assertEquals(Set.of(PACKAGE_1, PACKAGE_2, PACKAGE_3), getCachedPackageStatuses().keySet());
+        int fullRecomputeCount = getFullRecomputeCount();
+
+        // Installing a package only evaluates that package
+        setupInstalledPackages(
+                new PackageCertInfo(PACKAGE_1, CERT_1, USER_1, UID_1),
+                new PackageCertInfo(PACKAGE_2, CERT_2, USER_1, UID_2),
+                new PackageCertInfo(PACKAGE_3, CERT_3, USER_1, UID_3),
+                new PackageCertInfo(PACKAGE_4, CERT_1, USER_1, UID_4));
+        sendPackageChangedIntent(Intent.ACTION_PACKAGE_ADDED, PACKAGE_4);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_1, PACKAGE_2, PACKAGE_4),
+                new int[] {UID_1, UID_2, UID_4});
+        assertEquals(Set.of(PACKAGE_1, PACKAGE_2, PACKAGE_3, PACKAGE_4),
+                getCachedPackageStatuses().keySet());
+        assertEquals(fullRecomputeCount, getFullRecomputeCount());
+
+        // A package whose signature changed is re-evaluated
+        setupInstalledPackages(
+                new PackageCertInfo(PACKAGE_1, CERT_1, USER_1, UID_1),
+                new PackageCertInfo(PACKAGE_2, CERT_3, USER_1, UID_2),
+                new PackageCertInfo(PACKAGE_3, CERT_3, USER_1, UID_3),
+                new PackageCertInfo(PACKAGE_4, CERT_1, USER_1, UID_4));
+        sendPackageChangedIntent(Intent.ACTION_PACKAGE_REPLACED, PACKAGE_2);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_1, PACKAGE_4), new int[] {UID_1, UID_4});
+        assertEquals(fullRecomputeCount, getFullRecomputeCount());
+
+        // A removed package is dropped from the cache
+        sendPackageChangedIntent(Intent.ACTION_PACKAGE_REMOVED, PACKAGE_1);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_4), new int[] {UID_4});
+        assertEquals(Set.of(PACKAGE_2, PACKAGE_3, PACKAGE_4), getCachedPackageStatuses().keySet());
+        assertEquals(fullRecomputeCount, getFullRecomputeCount());
+    }
+
+    @Test
+    public void testPackageStatusCache_ruleChanges() throws Exception {
+        // Start with PACKAGE_1 & PACKAGE_2 privileged from CarrierConfig, PACKAGE_3 unprivileged
+        setupCarrierPrivilegesTrackerWithCarrierConfigUids();
+        int fullRecomputeCount = getFullRecomputeCount();
+
+        // A carrier config rule change re-evaluates every package
+        setupCarrierConfigRules(
+                carrierConfigRuleString(getHash(CERT_2)), carrierConfigRuleString(getHash(CERT_3)));
+        sendCarrierConfigChanged(SUB_ID, PHONE_ID);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_2, PACKAGE_3), new int[] {UID_2, UID_3});
+        assertEquals(Set.of(PACKAGE_1, PACKAGE_2, PACKAGE_3), getCachedPackageStatuses().keySet());
+        assertEquals(fullRecomputeCount + 1, getFullRecomputeCount());
+
+        // So does a SIM rule change
+        setupSimLoadedRules(ruleWithHashOnly(getHash(CERT_1)));
+        sendSimApplicationStateChangedIntent(PHONE_ID, SIM_STATE_LOADED);
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_1, PACKAGE_2, PACKAGE_3),
+                new int[] {UID_1, UID_2, UID_3});
+        assertEquals(fullRecomputeCount + 2, getFullRecomputeCount());
+
+        // And a test override of the rules
+        mCarrierPrivilegesTracker.setTestOverrideCarrierPrivilegeRules(getHash(CERT_3));
+        mTestableLooper.processAllMessages();
+
+        verifyCurrentState(Set.of(PACKAGE_3), new int[] {UID_3});
+        assertEquals(fullRecomputeCount + 3, getFullRecomputeCount());
+    }
+
+    /** Returns the per-package privilege status cache of {@link #mCarrierPrivilegesTracker}. */
+    @SuppressWarnings("unchecked")
+    private Map<String, Integer> getCachedPackageStatuses() throws Exception {
+        Field field = CarrierPrivilegesTracker.class.getDeclaredField("mPackagePrivilegedStatus");
+        field.setAccessible(true);
+        return (Map<String, Integer>) field.get(mCarrierPrivilegesTracker);
+    }
+
+    /** Returns how often {@link #mCarrierPrivilegesTracker} re-evaluated every package. */
+    private int getFullRecomputeCount() throws Exception {
+        Field field = CarrierPrivilegesTracker.class.getDeclaredField("mFullRecomputeCount");
+        field.setAccessible(true);
+        return field.getInt(mCarrierPrivilegesTracker);
+    }
+
     private void sendCarrierConfigChanged(int subId, int phoneId) {
         mCarrierConfigChangeListener.onCarrierConfigChanged(phoneId, subId,
                 TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
@@ -89,15 +89,18 @@ public class CarrierResolverTest extends TelephonyTest {
     private static final int SIM_LOAD_EVENT       = 1;
     private static final int ICC_CHANGED_EVENT    = 2;
     private static final int PREFER_APN_SET_EVENT = 3;
+    private static final int CARRIER_ID_DB_UPDATE_EVENT = 4;
 
     private CarrierResolver mCarrierResolver;
+    private CarrierIdContentProvider mCarrierIdContentProvider;
 
     @Before
     public void setUp() throws Exception {
         logd("CarrierResolverTest +Setup!");
         super.setUp(getClass().getSimpleName());
+        mCarrierIdContentProvider = new CarrierIdContentProvider();
         ((MockContentResolver) mContext.getContentResolver()).addProvider(
-                CarrierId.AUTHORITY, new CarrierIdContentProvider());
+                CarrierId.AUTHORITY, mCarrierIdContentProvider);
         mCarrierResolver = new CarrierResolver(mPhone);
         mCarrierResolver.sendEmptyMessage(ICC_CHANGED_EVENT);
         processAllMessages();
@@ -270,7 +273,33 @@ public class CarrierResolverTest extends TelephonyTest {
                 IccCardConstants.INTENT_VALUE_ICC_LOADED);
     }
 
+    @Test
+    @SmallTest
+    public void testCarrierMatchingRulesCachedUntilDbUpdate() {
+        int phoneId = mPhone.getPhoneId();
+        doReturn(MCCMNC).when(mTelephonyManager).getSimOperatorNumericForPhone(eq(phoneId));
+        mCarrierResolver.sendEmptyMessage(SIM_LOAD_EVENT);
+        processAllMessages();
+        assertEquals(CID_VZW, mCarrierResolver.getCarrierId());
+        assertEquals(1, mCarrierIdContentProvider.mRulesQueryCount);
+
+        // reloading the same SIM uses the cached rules.
+        doReturn(SPN_FI).when(mSimRecords).getServiceProviderName();
+        mCarrierResolver.sendEmptyMessage(SIM_LOAD_EVENT);
+        processAllMessages();
+        assertEquals(CID_FI, mCarrierResolver.getCarrierId());
+        assertEquals(1, mCarrierIdContentProvider.mRulesQueryCount);
+
+        // a carrier id table update drops the cached rules.
+        mCarrierResolver.sendEmptyMessage(CARRIER_ID_DB_UPDATE_EVENT);
+        processAllMessages();
+        assertEquals(CID_FI, mCarrierResolver.getCarrierId());
+        assertEquals(2, mCarrierIdContentProvider.mRulesQueryCount);
+    }
+
     private class CarrierIdContentProvider extends MockContentProvider {
+        private int mRulesQueryCount;
+
         @Override
         public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                 String sortOrder) {
@@ -281,6 +310,10 @@ public class CarrierResolverTest extends TelephonyTest {
             logd("   selectionArgs = " + Arrays.toString(selectionArgs));
             logd("   sortOrder = " + sortOrder);
 
+            if (CarrierId.All.CONTENT_URI.equals(uri)) {
+                mRulesQueryCount++;
+            }
+
             if (CarrierId.All.CONTENT_URI.getAuthority().equals(
                     uri.getAuthority())) {
                 MatrixCursor mc = new MatrixCursor(
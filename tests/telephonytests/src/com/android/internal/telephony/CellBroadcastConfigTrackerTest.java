@@ -273,6 +273,85 @@ public final class CellBroadcastConfigTrackerTest extends TelephonyTest {
         assertEquals(mPhone.getCellBroadcastIdRanges(), mergeRangesAsNeeded(ranges));
     }
 
+    @Test
+    public void testSetCellBroadcastIdRangesSkipUnchangedActivation() throws Exception {
+        ArgumentCaptor<Message> msgCaptor = ArgumentCaptor.forClass(Message.class);
+        List<CellBroadcastIdRange> ranges = new ArrayList<>();
+        ranges.add(new CellBroadcastIdRange(0, 999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+
+        mockCommandInterface();
+
+        mPhone.setCellBroadcastIdRanges(ranges, r -> assertTrue(
+                TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS == r));
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastConfig(any(), msgCaptor.capture());
+        Message msg = msgCaptor.getValue();
+        AsyncResult.forMessage(msg);
+        msg.sendToTarget();
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastActivation(eq(true), msgCaptor.capture());
+        msg = msgCaptor.getValue();
+        AsyncResult.forMessage(msg);
+        msg.sendToTarget();
+        processAllMessages();
+
+        // Verify the activation is not sent again as the gsm ranges are still not empty
+        int[] result = new int[] {-1};
+        ranges.add(new CellBroadcastIdRange(1000, 1999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+        mPhone.setCellBroadcastIdRanges(ranges, r -> result[0] = r);
+        processAllMessages();
+
+        verify(mSpyCi, times(2)).setGsmBroadcastConfig(any(), msgCaptor.capture());
+        msg = msgCaptor.getValue();
+        AsyncResult.forMessage(msg);
+        msg.sendToTarget();
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastActivation(anyBoolean(), any());
+        verify(mSpyCi, never()).setCdmaBroadcastConfig(any(), any());
+        assertEquals(TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS, result[0]);
+        assertEquals(mergeRangesAsNeeded(ranges), mPhone.getCellBroadcastIdRanges());
+    }
+
+    @Test
+    public void testSetCellBroadcastIdRangesCoalesceQueuedRequests() throws Exception {
+        ArgumentCaptor<SmsBroadcastConfigInfo[]> gsmCaptor = ArgumentCaptor.forClass(
+                SmsBroadcastConfigInfo[].class);
+        ArgumentCaptor<Message> msgCaptor = ArgumentCaptor.forClass(Message.class);
+        List<CellBroadcastIdRange> ranges1 = new ArrayList<>();
+        ranges1.add(new CellBroadcastIdRange(0, 999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+        List<CellBroadcastIdRange> ranges2 = new ArrayList<>();
+        ranges2.add(new CellBroadcastIdRange(1000, 1999, SmsCbMessage.MESSAGE_FORMAT_3GPP, true));
+        int[] results = new int[] {-1, -1};
+
+        mockCommandInterface();
+
+        // Verify only the latest request is sent and the result is reported to both callers
+        mPhone.setCellBroadcastIdRanges(ranges1, r -> results[0] = r);
+        mPhone.setCellBroadcastIdRanges(ranges2, r -> results[1] = r);
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastConfig(gsmCaptor.capture(), msgCaptor.capture());
+        assertEquals(Arrays.asList(new SmsBroadcastConfigInfo(1000, 1999, 0, 255, true)),
+                Arrays.asList((SmsBroadcastConfigInfo[]) gsmCaptor.getValue()));
+        Message msg = msgCaptor.getValue();
+        AsyncResult.forMessage(msg);
+        msg.sendToTarget();
+        processAllMessages();
+
+        verify(mSpyCi, times(1)).setGsmBroadcastActivation(eq(true), msgCaptor.capture());
+        msg = msgCaptor.getValue();
+        AsyncResult.forMessage(msg);
+        msg.sendToTarget();
+        processAllMessages();
+
+        assertEquals(TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS, results[0]);
+        assertEquals(TelephonyManager.CELL_BROADCAST_RESULT_SUCCESS, results[1]);
+        assertEquals(ranges2, mPhone.getCellBroadcastIdRanges());
+    }
+
     @Test
     public void testSetCellBroadcastIdRangesFailure() throws Exception {
         List<CellBroadcastIdRange> ranges = new ArrayList<>();
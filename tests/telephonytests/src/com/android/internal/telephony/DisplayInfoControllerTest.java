@@ -16,6 +16,7 @@
 
 package com.android.internal.telephony;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -308,4 +309,182 @@ public class DisplayInfoControllerTest extends TelephonyTest {
 
         assertFalse(tdi.isRoaming()); // display override
     }
+
+    @Test
+    public void testCoalescingWindow() {
+        doReturn(true).when(mPhone).isPhoneTypeGsm();
+        mBundle.putStringArray(
+                CarrierConfigManager.KEY_GSM_ROAMING_NETWORKS_STRING_ARRAY, new String[] {NUMERIC});
+        sendCarrierConfigUpdate();
+
+        changeRegState(NetworkRegistrationInfo.REGISTRATION_STATE_HOME);
+        assertTrue(mSst.getServiceState().getRoaming()); // roam
+
+        doReturn(mSst).when(mPhone).getServiceStateTracker();
+        mDic = new DisplayInfoController(mPhone, mFeatureFlags);
+        mDic.setCoalescingWindowMillis(1000);
+        processAllMessages();
+
+        // Repeated updates must not restart the window.
+        mDic.updateTelephonyDisplayInfo();
+        moveTimeForward(600);
+        processAllMessages();
+        mDic.updateTelephonyDisplayInfo();
+        assertFalse(mDic.getTelephonyDisplayInfo().isRoaming());
+
+        moveTimeForward(400);
+        processAllMessages();
+        assertTrue(mDic.getTelephonyDisplayInfo().isRoaming());
+    }
+
+    @Test
+    public void testCoalescingWindow_alternatingCandidates() throws Exception {
+        doReturn(true).when(mPhone).isPhoneTypeGsm();
+        changeRegState(NetworkRegistrationInfo.REGISTRATION_STATE_HOME);
+
+        doReturn(mSst).when(mPhone).getServiceStateTracker();
+        mDic = new DisplayInfoController(mPhone, mFeatureFlags);
+        processAllMessages();
+        NetworkTypeController networkTypeController = Mockito.mock(NetworkTypeController.class);
+        replaceInstance(DisplayInfoController.class, "mNetworkTypeController", mDic,
+                networkTypeController);
+        doReturn(TelephonyManager.NETWORK_TYPE_LTE).when(networkTypeController)
+                .getDataNetworkType();
+        doReturn(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE).when(networkTypeController)
+                .getOverrideNetworkType();
+        mDic.updateTelephonyDisplayInfo();
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+
+        // NR_NSA and NR_ADVANCED alternate, both different from the published LTE.
+        mDic.setCoalescingWindowMillis(1000);
+        int[] candidates = {TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED};
+        for (int candidate : candidates) {
+            doReturn(candidate).when(networkTypeController).getOverrideNetworkType();
+            mDic.updateTelephonyDisplayInfo();
+            assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                    mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+            moveTimeForward(300);
+            processAllMessages();
+        }
+
+        // The window has expired, but the latest candidate hasn't held for half the window yet.
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+
+        // The latest candidate is published once it has held long enough.
+        moveTimeForward(200);
+        processAllMessages();
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED,
+                mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+    }
+
+    @Test
+    public void testCoalescingWindow_continuousFlapping() throws Exception {
+        doReturn(true).when(mPhone).isPhoneTypeGsm();
+        changeRegState(NetworkRegistrationInfo.REGISTRATION_STATE_HOME);
+
+        doReturn(mSst).when(mPhone).getServiceStateTracker();
+        mDic = new DisplayInfoController(mPhone, mFeatureFlags);
+        processAllMessages();
+        NetworkTypeController networkTypeController = Mockito.mock(NetworkTypeController.class);
+        replaceInstance(DisplayInfoController.class, "mNetworkTypeController", mDic,
+                networkTypeController);
+        doReturn(TelephonyManager.NETWORK_TYPE_LTE).when(networkTypeController)
+                .getDataNetworkType();
+        doReturn(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE).when(networkTypeController)
+                .getOverrideNetworkType();
+        mDic.updateTelephonyDisplayInfo();
+
+        // NR_NSA and NR_ADVANCED keep alternating faster than half the window.
+        mDic.setCoalescingWindowMillis(1000);
+        int candidate = TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA;
+        for (int i = 0; i < 10; i++) {
+            doReturn(candidate).when(networkTypeController).getOverrideNetworkType();
+            mDic.updateTelephonyDisplayInfo();
+            assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                    mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+            moveTimeForward(200);
+            processAllMessages();
+            candidate = candidate == TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA
+                    ? TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED
+                    : TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA;
+        }
+
+        // The latest candidate is published two windows after the first pending change.
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED,
+                mDic.getTelephonyDisplayInfo().getOverrideNetworkType());
+    }
+
+    @Test
+    public void testCoalescingWindow_carrierConfigAndNetworkType() throws Exception {
+        doReturn(true).when(mPhone).isPhoneTypeGsm();
+        mBundle.putStringArray(
+                CarrierConfigManager.KEY_GSM_ROAMING_NETWORKS_STRING_ARRAY, new String[] {NUMERIC});
+        mBundle.putBoolean(CarrierConfigManager.KEY_SHOW_ROAMING_INDICATOR_BOOL, true);
+        doReturn(true).when(mFeatureFlags).hideRoamingIcon();
+        sendCarrierConfigUpdate();
+
+        changeRegState(NetworkRegistrationInfo.REGISTRATION_STATE_HOME);
+        assertTrue(mSst.getServiceState().getRoaming()); // roam
+
+        doReturn(mSst).when(mPhone).getServiceStateTracker();
+        mDic = new DisplayInfoController(mPhone, mFeatureFlags);
+        ArgumentCaptor<CarrierConfigManager.CarrierConfigChangeListener> listenerCaptor =
+                ArgumentCaptor.forClass(CarrierConfigManager.CarrierConfigChangeListener.class);
+        verify(mCarrierConfigManager, atLeast(1)).registerCarrierConfigChangeListener(any(),
+                listenerCaptor.capture());
+        CarrierConfigManager.CarrierConfigChangeListener dicListener =
+                listenerCaptor.getValue();
+        processAllMessages();
+        NetworkTypeController networkTypeController = Mockito.mock(NetworkTypeController.class);
+        replaceInstance(DisplayInfoController.class, "mNetworkTypeController", mDic,
+                networkTypeController);
+        doReturn(TelephonyManager.NETWORK_TYPE_LTE).when(networkTypeController)
+                .getDataNetworkType();
+        doReturn(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE).when(networkTypeController)
+                .getOverrideNetworkType();
+        mDic.updateTelephonyDisplayInfo();
+        assertTrue(mDic.getTelephonyDisplayInfo().isRoaming());
+        mDic.setCoalescingWindowMillis(1000);
+
+        // A carrier config change hiding the roaming indicator is held for the window.
+        mBundle.putBoolean(CarrierConfigManager.KEY_SHOW_ROAMING_INDICATOR_BOOL, false);
+        dicListener.onCarrierConfigChanged(PHONE_ID, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        processAllMessages();
+        assertTrue(mDic.getTelephonyDisplayInfo().isRoaming());
+        moveTimeForward(1000);
+        processAllMessages();
+        assertFalse(mDic.getTelephonyDisplayInfo().isRoaming());
+
+        // A carrier config change that is reverted within the window is never published.
+        mBundle.putBoolean(CarrierConfigManager.KEY_SHOW_ROAMING_INDICATOR_BOOL, true);
+        dicListener.onCarrierConfigChanged(PHONE_ID, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        processAllMessages();
+        moveTimeForward(300);
+        processAllMessages();
+        mBundle.putBoolean(CarrierConfigManager.KEY_SHOW_ROAMING_INDICATOR_BOOL, false);
+        dicListener.onCarrierConfigChanged(PHONE_ID, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        processAllMessages();
+        moveTimeForward(2000);
+        processAllMessages();
+        assertFalse(mDic.getTelephonyDisplayInfo().isRoaming());
+
+        // A data network type change is held for the window as well.
+        doReturn(TelephonyManager.NETWORK_TYPE_NR).when(networkTypeController)
+                .getDataNetworkType();
+        mDic.updateTelephonyDisplayInfo();
+        assertEquals(TelephonyManager.NETWORK_TYPE_LTE,
+                mDic.getTelephonyDisplayInfo().getNetworkType());
+        moveTimeForward(1000);
+        processAllMessages();
+        assertEquals(TelephonyManager.NETWORK_TYPE_NR,
+                mDic.getTelephonyDisplayInfo().getNetworkType());
+    }
 }
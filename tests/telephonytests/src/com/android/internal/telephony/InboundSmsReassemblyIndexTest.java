@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.provider.Telephony;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InboundSmsReassemblyIndexTest extends TelephonyTest {
+    private static final String ADDRESS = "1234567890";
+    private static final int REFERENCE_NUMBER = 42;
+    private static final int MESSAGE_COUNT = 3;
+
+    private FakeSmsContentProvider mContentProvider;
+    private InboundSmsReassemblyIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mContentProvider = new FakeSmsContentProvider();
+        ((MockContentResolver) mContext.getContentResolver()).addProvider(
+                Telephony.Sms.CONTENT_URI.getAuthority(), mContentProvider);
+        mIndex = new InboundSmsReassemblyIndex();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContentProvider.shutdown();
+        mContentProvider = null;
+        mIndex = null;
+        super.tearDown();
+    }
+
+    private InboundSmsTracker createSegment(int sequence, boolean is3gpp2WapPdu) {
+        return new InboundSmsTracker(mContext, new byte[]{1, 2, 3}, 123456L, 0,
+                is3gpp2WapPdu, ADDRESS, ADDRESS, REFERENCE_NUMBER, sequence, MESSAGE_COUNT,
+                is3gpp2WapPdu, "body" + sequence, false /* isClass0 */, 0,
+                InboundSmsHandler.SOURCE_NOT_INJECTED);
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidUntilRebuilt() {
+        InboundSmsTracker segment = createSegment(1, false);
+        mIndex.addSegment(segment);
+        assertEquals(-1, mIndex.getSegmentCount(segment));
+        assertTrue(mIndex.mayContainSegment(createSegment(2, false)));
+    }
+
+    @Test
+    @SmallTest
+    public void testRebuildFromRawTable() {
+        mContentProvider.insert(InboundSmsHandler.sRawUri,
+                createSegment(1, false).getContentValues());
+        mContentProvider.insert(InboundSmsHandler.sRawUri,
+                createSegment(2, false).getContentValues());
+        mContentProvider.insert(InboundSmsHandler.sRawUri,
+                createSegment(1, true).getContentValues());
+
+        mIndex.rebuild(mContext.getContentResolver());
+
+        assertEquals(2, mIndex.getMessageCount());
+        assertEquals(2, mIndex.getSegmentCount(createSegment(3, false)));
+        assertEquals(1, mIndex.getSegmentCount(createSegment(3, true)));
+        assertTrue(mIndex.mayContainSegment(createSegment(2, false)));
+        assertFalse(mIndex.mayContainSegment(createSegment(3, false)));
+        assertFalse(mIndex.mayContainSegment(createSegment(2, true)));
+    }
+
+    @Test
+    @SmallTest
+    public void testAddAndRemoveSegments() {
+        mIndex.rebuild(mContext.getContentResolver());
+        InboundSmsTracker segment1 = createSegment(1, false);
+        InboundSmsTracker segment2 = createSegment(2, false);
+
+        mIndex.addSegment(segment1);
+        mIndex.addSegment(segment2);
+        mIndex.addSegment(segment2);
+        assertEquals(3, mIndex.getSegmentCount(segment1));
+
+        mIndex.removeSegment(segment2);
+        assertEquals(1, mIndex.getSegmentCount(segment1));
+        assertFalse(mIndex.mayContainSegment(segment2));
+
+        // Deleting with the multi-part delete selection drops the whole message.
+        mIndex.onRawTableDelete(segment1.getQueryForSegments(), new String[]{ADDRESS,
+                Integer.toString(REFERENCE_NUMBER), Integer.toString(MESSAGE_COUNT)});
+        assertEquals(0, mIndex.getSegmentCount(segment1));
+        assertEquals(0, mIndex.getMessageCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testSinglePartDeleteIgnored() {
+        mIndex.rebuild(mContext.getContentResolver());
+        InboundSmsTracker segment = createSegment(1, false);
+        mIndex.addSegment(segment);
+
+        mIndex.onRawTableDelete(InboundSmsHandler.SELECT_BY_ID, new String[]{"1"});
+        assertEquals(1, mIndex.getSegmentCount(segment));
+    }
+}
@@ -25,6 +25,9 @@ import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
 
 /**
  * Test cases for the IntRangeManager class.
@@ -1162,4 +1165,87 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    @Test @SmallTest
+    public void testEnableRangeStartingAtEndOfExistingRange() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range 1", testManager.enableRange(1, 4, "client1"));
+        testManager.reset();
+        assertTrue("enabling range 2", testManager.enableRange(4, 8, "client2"));
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 5, 8, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        assertEquals("[1-8]", testManager.toString());
+    }
+
+    /** IntRangeManager that keeps the configuration of the last successful update. */
+    private static class RadioIntRangeManager extends IntRangeManager {
+        ArrayList<SmsBroadcastConfigInfo> mRadioConfig = new ArrayList<>();
+        private ArrayList<SmsBroadcastConfigInfo> mPendingConfig;
+
+        @Override
+        protected void startUpdate() {
+            mPendingConfig = new ArrayList<>();
+        }
+
+        @Override
+        protected void addRange(int startId, int endId, boolean selected) {
+            mPendingConfig.add(new SmsBroadcastConfigInfo(startId, endId,
+                    SMS_CB_CODE_SCHEME_MIN, SMS_CB_CODE_SCHEME_MAX, selected));
+        }
+
+        @Override
+        protected boolean finishUpdate() {
+            mRadioConfig = mPendingConfig;
+            return true;
+        }
+    }
+
+    private static BitSet getEnabledIds(ArrayList<SmsBroadcastConfigInfo> config) {
+        BitSet ids = new BitSet();
+        for (SmsBroadcastConfigInfo info : config) {
+            assertTrue("inverted range sent to radio",
+                    info.getFromServiceId() <= info.getToServiceId());
+            ids.set(info.getFromServiceId(), info.getToServiceId() + 1);
+        }
+        return ids;
+    }
+
+    @Test @SmallTest
+    public void testRandomEnableDisable_radioConfigMatchesClientRanges() {
+        Random random = new Random(0x1c3);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            RadioIntRangeManager testManager = new RadioIntRangeManager();
+            // enabled ranges as {startId, endId, client}
+            ArrayList<int[]> enabled = new ArrayList<>();
+            for (int op = 0; op < 30; op++) {
+                if (enabled.isEmpty() || random.nextInt(3) != 0) {
+                    int startId = random.nextInt(40);
+                    int[] range = {startId, startId + random.nextInt(8), random.nextInt(3)};
+                    boolean duplicate = false;
+                    for (int[] other : enabled) {
+                        duplicate |= Arrays.equals(range, other);
+                    }
+                    assertTrue("enabling range", testManager.enableRange(range[0], range[1],
+                            "client" + range[2]));
+                    if (!duplicate) {
+                        enabled.add(range);
+                    }
+                } else {
+                    int[] range = enabled.remove(random.nextInt(enabled.size()));
+                    assertTrue("disabling range", testManager.disableRange(range[0], range[1],
+                            "client" + range[2]));
+                    assertFalse("disabling range twice", testManager.disableRange(range[0],
+                            range[1], "client" + range[2]));
+                }
+
+                BitSet expected = new BitSet();
+                for (int[] range : enabled) {
+                    expected.set(range[0], range[1] + 1);
+                }
+                assertEquals("enabled ids", expected, getEnabledIds(testManager.mRadioConfig));
+                assertEquals("isEmpty", enabled.isEmpty(), testManager.isEmpty());
+            }
+        }
+    }
 }
@@ -715,6 +715,47 @@ public class NetworkTypeControllerTest extends TelephonyTest {
         assertEquals("connected", getCurrentState().getName());
     }
 
+    @Test
+    public void testEventPhysicalChannelConfigChangedWithSameConfigs() throws Exception {
+        testTransitionToCurrentStateNrConnected();
+        mBundle.putIntArray(CarrierConfigManager.KEY_ADDITIONAL_NR_ADVANCED_BANDS_INT_ARRAY,
+                new int[]{41, 77});
+        sendCarrierConfigChanged();
+
+        PhysicalChannelConfig pcc1 = new PhysicalChannelConfig.Builder()
+                .setNetworkType(TelephonyManager.NETWORK_TYPE_NR)
+                .setPhysicalCellId(1)
+                .setCellConnectionStatus(CellInfo.CONNECTION_PRIMARY_SERVING)
+                .build();
+        PhysicalChannelConfig pcc2 = new PhysicalChannelConfig.Builder()
+                .setNetworkType(TelephonyManager.NETWORK_TYPE_NR)
+                .setPhysicalCellId(2)
+                .setCellConnectionStatus(CellInfo.CONNECTION_SECONDARY_SERVING)
+                .setBand(41)
+                .build();
+        List<PhysicalChannelConfig> physicalChannelConfigs = new ArrayList<>();
+        physicalChannelConfigs.add(pcc1);
+        physicalChannelConfigs.add(pcc2);
+        doReturn(physicalChannelConfigs).when(mSST).getPhysicalChannelConfigList();
+        mNetworkTypeController.sendMessage(11 /* EVENT_PHYSICAL_CHANNEL_CONFIGS_CHANGED */,
+                new AsyncResult(null, physicalChannelConfigs, null));
+        processAllMessages();
+        assertEquals("connected_mmwave", getCurrentState().getName());
+
+        // The same configs reported again keep the state
+        mNetworkTypeController.sendMessage(11 /* EVENT_PHYSICAL_CHANNEL_CONFIGS_CHANGED */,
+                new AsyncResult(null, new ArrayList<>(physicalChannelConfigs), null));
+        processAllMessages();
+        assertEquals("connected_mmwave", getCurrentState().getName());
+
+        // Changes to the previously reported list are still applied
+        physicalChannelConfigs.remove(pcc2);
+        mNetworkTypeController.sendMessage(11 /* EVENT_PHYSICAL_CHANNEL_CONFIGS_CHANGED */,
+                new AsyncResult(null, physicalChannelConfigs, null));
+        processAllMessages();
+        assertEquals("connected", getCurrentState().getName());
+    }
+
     @Test
     public void testEventPhysicalChannelConfigChangedUsingUserDataForRrc() throws Exception {
         testTransitionToCurrentStateNrConnected();
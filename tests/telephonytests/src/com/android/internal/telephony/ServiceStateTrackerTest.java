@@ -754,6 +754,50 @@ public class ServiceStateTrackerTest extends TelephonyTest {
                 mSimulatedCommands.getGetNetworkSelectionModeCallCount());
     }
 
+    @Test
+    @SmallTest
+    public void testGetServiceStateChangedFields() {
+        ServiceState oldSS = new ServiceState();
+        oldSS.setOperatorName("long", "short", "00101");
+        ServiceState newSS = new ServiceState(oldSS);
+        assertEquals(0, ServiceStateTracker.getServiceStateChangedFields(oldSS, newSS));
+
+        newSS.setOperatorName("long", "short", "00102");
+        assertEquals(ServiceStateTracker.SERVICE_STATE_FIELD_OPERATOR,
+                ServiceStateTracker.getServiceStateChangedFields(oldSS, newSS));
+
+        newSS.setCellBandwidths(new int[] {20000});
+        assertEquals(ServiceStateTracker.SERVICE_STATE_FIELD_OPERATOR
+                        | ServiceStateTracker.SERVICE_STATE_FIELD_CELL_BANDWIDTHS,
+                ServiceStateTracker.getServiceStateChangedFields(oldSS, newSS));
+
+        newSS = new ServiceState(oldSS);
+        newSS.setIsManualSelection(true);
+        assertEquals(ServiceStateTracker.SERVICE_STATE_FIELD_OTHER,
+                ServiceStateTracker.getServiceStateChangedFields(oldSS, newSS));
+    }
+
+    @Test
+    @MediumTest
+    public void testPollStateCoalescesQueuedRequests() {
+        sst.setRadioPower(true);
+        waitForLastHandlerAction(mSSTTestHandler.getThreadHandler());
+        final int getOperatorCallCount = mSimulatedCommands.getGetOperatorCallCount();
+        final int getDataRegistrationStateCallCount =
+                mSimulatedCommands.getGetDataRegistrationStateCallCount();
+
+        // Queue both requests before the first one is handled
+        sst.post(() -> {
+            sst.pollState();
+            sst.pollState();
+        });
+        waitForLastHandlerAction(mSSTTestHandler.getThreadHandler());
+
+        assertEquals(getOperatorCallCount + 1, mSimulatedCommands.getGetOperatorCallCount());
+        assertEquals(getDataRegistrationStateCallCount + 1,
+                mSimulatedCommands.getGetDataRegistrationStateCallCount());
+    }
+
     @FlakyTest
     @Ignore
     @Test
@@ -2452,6 +2496,52 @@ public class ServiceStateTrackerTest extends TelephonyTest {
         assertArrayEquals(new int[]{10000, 5000}, sst.mSS.getCellBandwidths());
     }
 
+    @Test
+    public void testServiceStateChangedRegistrantsWithFields() {
+        CellIdentityLte cellIdentity10 =
+                new CellIdentityLte(1, 1, 1, 1, new int[] {1, 2}, 10000, "1", "1", "test",
+                        "tst", Collections.emptyList(), null);
+        sendRegStateUpdateForLteCellId(cellIdentity10);
+
+        Handler dataHandler = Mockito.mock(Handler.class);
+        Handler nrFrequencyHandler = Mockito.mock(Handler.class);
+        sst.registerForServiceStateChanged(dataHandler, EVENT_DATA_RAT_CHANGED, null,
+                ServiceStateTracker.SERVICE_STATE_FIELD_DATA_REGISTRATION);
+        // Another registration of the same handler with another what code is kept.
+        sst.registerForServiceStateChanged(dataHandler, EVENT_VOICE_RAT_CHANGED, null,
+                ServiceStateTracker.SERVICE_STATE_FIELD_CELL_BANDWIDTHS);
+        sst.registerForServiceStateChanged(nrFrequencyHandler, EVENT_VOICE_RAT_CHANGED, null,
+                ServiceStateTracker.SERVICE_STATE_FIELD_NR_FREQUENCY_RANGE);
+
+        // The bandwidths change through the physical channel config.
+        sendPhyChanConfigChange(new int[] {10000, 5000}, TelephonyManager.NETWORK_TYPE_LTE, 1);
+        ArgumentCaptor<Message> messageArgumentCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(dataHandler, atLeast(1)).sendMessageAtTime(messageArgumentCaptor.capture(),
+                anyLong());
+        assertTrue(messageArgumentCaptor.getAllValues().stream()
+                .anyMatch(msg -> msg.what == EVENT_VOICE_RAT_CHANGED));
+        verify(nrFrequencyHandler, never()).sendMessageAtTime(any(Message.class), anyLong());
+
+        // The data registration changes through pollStateDone.
+        clearInvocations(dataHandler);
+        CellIdentityLte cellIdentity2 =
+                new CellIdentityLte(1, 1, 2, 1, new int[] {1, 2}, 10000, "1", "1", "test",
+                        "tst", Collections.emptyList(), null);
+        sendRegStateUpdateForLteCellId(cellIdentity2);
+        messageArgumentCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(dataHandler, atLeast(1)).sendMessageAtTime(messageArgumentCaptor.capture(),
+                anyLong());
+        assertTrue(messageArgumentCaptor.getAllValues().stream()
+                .anyMatch(msg -> msg.what == EVENT_DATA_RAT_CHANGED));
+        verify(nrFrequencyHandler, never()).sendMessageAtTime(any(Message.class), anyLong());
+
+        // Unregistering the handler removes all its registrations.
+        sst.unregisterForServiceStateChanged(dataHandler);
+        clearInvocations(dataHandler);
+        sendRegStateUpdateForLteCellId(cellIdentity10);
+        verify(dataHandler, never()).sendMessageAtTime(any(Message.class), anyLong());
+    }
+
     @Test
     public void testUpdateNrFrequencyRangeFromPhysicalChannelConfigs() {
         when(mPhone.getDataNetworkController().isInternetNetwork(eq(3))).thenReturn(true);
@@ -955,6 +955,26 @@ public class SignalStrengthControllerTest extends TelephonyTest {
                 1 /*expectedNonEmptyThreshold*/);
     }
 
+    @Test
+    public void testUpdateReportingCriteria_skipUnchangedCriteria() {
+        when(mPhone.isDeviceIdle()).thenReturn(true);
+        mSsc.onDeviceIdleStateChanged(true /* isDeviceIdle */);
+        processAllMessages();
+
+        // The consolidated criteria are not changed, so nothing is sent to the modem
+        reset(mSimulatedCommandsVerifier);
+        mSsc.onDeviceIdleStateChanged(true /* isDeviceIdle */);
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier, never()).setSignalStrengthReportingCriteria(anyList(),
+                isNull());
+
+        // The criteria are always sent on carrier config change
+        sendCarrierConfigUpdate();
+        verify(mSimulatedCommandsVerifier).setSignalStrengthReportingCriteria(anyList(),
+                isNull());
+        reset(mSimulatedCommandsVerifier);
+    }
+
     @Test
     public void testSignalStrengthChangedCallback() {
         Handler mockRegistrant = Mockito.mock(Handler.class);
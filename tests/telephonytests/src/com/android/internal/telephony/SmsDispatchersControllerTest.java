@@ -78,7 +78,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 @RunWith(AndroidTestingRunner.class)
@@ -1381,6 +1383,25 @@ public class SmsDispatchersControllerTest extends TelephonyTest {
         }
     }
 
+    @Test
+    @SmallTest
+    public void testSchedulePendingRequests_prioritizesRetriesAndSharesAcrossApps() {
+        PendingRequest vvm = createPendingRequest(PendingRequest.TYPE_TEXT, "vvm-app", true);
+        PendingRequest bulk1 = createPendingRequest(PendingRequest.TYPE_TEXT, "bulk-app", false);
+        PendingRequest bulk2 = createPendingRequest(PendingRequest.TYPE_TEXT, "bulk-app", false);
+        PendingRequest bulk3 = createPendingRequest(PendingRequest.TYPE_TEXT, "bulk-app", false);
+        PendingRequest other = createPendingRequest(PendingRequest.TYPE_TEXT, "other-app", false);
+        PendingRequest retry = createPendingRequest(PendingRequest.TYPE_RETRY_SMS, "bulk-app",
+                false);
+        ArrayList<PendingRequest> queued = new ArrayList<>(
+                Arrays.asList(vvm, bulk1, bulk2, bulk3, other, retry));
+
+        List<PendingRequest> scheduled =
+                SmsDispatchersController.schedulePendingRequests(queued);
+
+        assertEquals(Arrays.asList(retry, bulk1, other, bulk2, bulk3, vvm), scheduled);
+    }
+
     private static <T> ArrayList<T> asArrayList(T object) {
         ArrayList<T> list = new ArrayList<>();
         list.add(object);
@@ -1394,4 +1415,11 @@ public class SmsDispatchersControllerTest extends TelephonyTest {
                 false, null, 0, asArrayList("text"), null,
                 false, 0, false, 10, 100L, false, false);
     }
+
+    private PendingRequest createPendingRequest(int type, String callingPackage,
+            boolean isForVvm) {
+        return new PendingRequest(type, null, callingPackage, mCallingUserId, "1111", "2222",
+                asArrayList(mSentIntent), asArrayList(null), isForVvm, null, 0,
+                asArrayList("text"), null, false, 0, false, 10, 100L, false, false);
+    }
 }
@@ -23,10 +23,15 @@ import static android.telephony.SmsManager.SMS_CATEGORY_PREMIUM_SHORT_CODE;
 import static android.telephony.SmsManager.SMS_CATEGORY_STANDARD_SHORT_CODE;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import android.os.Looper;
 
 import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
 
 /**
  * Test cases for SMS short code pattern matching in SmsUsageMonitor.
@@ -471,4 +476,55 @@ public class SmsUsageMonitorShortCodeTest {
                     test.category, monitor.checkDestination(test.address, test.countryIso));
         }
     }
+
+    private static void verifyCombinedMatchesSeparate(
+            SmsUsageMonitor.ShortCodePatternMatcher matcher) {
+        Random random = new Random(0x5c0de);
+        for (int i = 0; i < 20000; i++) {
+            int length = 1 + random.nextInt(7);
+            StringBuilder number = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            String address = number.toString();
+            assertEquals("number: " + address, matcher.getNumberCategorySeparately(address),
+                    matcher.getNumberCategory(address));
+        }
+    }
+
+    @Test
+    public void testCombinedPatternMatchesSeparatePatterns() {
+        // "us" and "am" patterns from the premium SMS pattern file.
+        SmsUsageMonitor.ShortCodePatternMatcher us = new SmsUsageMonitor.ShortCodePatternMatcher(
+                "\\d{5,6}",
+                "20433|21(?:344|472)|22715|23(?:333|847)|24(?:15|28)0|25209|27(?:449|606|663)"
+                        + "|28498|305(?:00|83)|32(?:340|941)|33(?:166|786|849)|34746"
+                        + "|35(?:182|564)|37975|38(?:135|146|254)|41(?:366|463)|42335"
+                        + "|43(?:355|500)|44(?:578|711|811)|45814|46(?:157|173|327)|46666",
+                "122|87902|21696|24614|28003|30356|33669|40196|41064|41270|43753|44034",
+                "44567|244444");
+        assertTrue(us.isCombined());
+        assertEquals(SMS_CATEGORY_FREE_SHORT_CODE, us.getNumberCategory("122"));
+        assertEquals(SMS_CATEGORY_STANDARD_SHORT_CODE, us.getNumberCategory("244444"));
+        assertEquals(SMS_CATEGORY_PREMIUM_SHORT_CODE, us.getNumberCategory("20433"));
+        assertEquals(SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE, us.getNumberCategory("20000"));
+        assertEquals(SMS_CATEGORY_NOT_SHORT_CODE, us.getNumberCategory("2000000"));
+        verifyCombinedMatchesSeparate(us);
+
+        SmsUsageMonitor.ShortCodePatternMatcher am = new SmsUsageMonitor.ShortCodePatternMatcher(
+                "\\d{3,5}", "11[2-456]1|3024", "10[123]", null);
+        assertTrue(am.isCombined());
+        verifyCombinedMatchesSeparate(am);
+    }
+
+    @Test
+    public void testBackReferencePatternsMatchedSeparately() {
+        SmsUsageMonitor.ShortCodePatternMatcher matcher =
+                new SmsUsageMonitor.ShortCodePatternMatcher("(\\d)\\1{3}", "(\\d)\\d\\1", null,
+                        null);
+        assertFalse(matcher.isCombined());
+        assertEquals(SMS_CATEGORY_PREMIUM_SHORT_CODE, matcher.getNumberCategory("121"));
+        assertEquals(SMS_CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE, matcher.getNumberCategory("7777"));
+        assertEquals(SMS_CATEGORY_NOT_SHORT_CODE, matcher.getNumberCategory("1234"));
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Test cases for the per-app send window of SmsUsageMonitor.
+ */
+public class SmsUsageMonitorTest {
+
+    @Test
+    public void testSendWindow_expiresOldestFirst() {
+        SmsUsageMonitor.SendWindow window = new SmsUsageMonitor.SendWindow(4);
+        window.add(10);
+        window.add(20);
+        window.add(30);
+        assertEquals(3, window.size());
+        assertEquals(30, window.newest());
+
+        window.expire(20);
+        assertArrayEquals(new long[]{20, 30}, window.toArray());
+
+        window.expire(31);
+        assertEquals(0, window.size());
+        assertEquals(Long.MIN_VALUE, window.newest());
+    }
+
+    @Test
+    public void testSendWindow_wrapsAround() {
+        SmsUsageMonitor.SendWindow window = new SmsUsageMonitor.SendWindow(3);
+        for (long time = 1; time <= 10; time++) {
+            window.expire(time - 2);
+            window.add(time);
+        }
+        assertArrayEquals(new long[]{8, 9, 10}, window.toArray());
+    }
+
+    @Test
+    public void testSendWindow_fullWindowDropsOldest() {
+        SmsUsageMonitor.SendWindow window = new SmsUsageMonitor.SendWindow(2);
+        window.add(1);
+        window.add(2);
+        window.add(3);
+        assertEquals(2, window.capacity());
+        assertArrayEquals(new long[]{2, 3}, window.toArray());
+    }
+
+    @Test
+    public void testSendWindow_zeroCapacity() {
+        SmsUsageMonitor.SendWindow window = new SmsUsageMonitor.SendWindow(0);
+        window.add(1);
+        window.expire(2);
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    public void testSendWindows_writeAndReload() throws Exception {
+        File file = File.createTempFile("sms_send_windows", ".xml");
+        try {
+            AtomicFile atomicFile = new AtomicFile(file);
+            Map<String, long[]> written = new ArrayMap<>();
+            written.put("com.example.one", new long[]{100, 200, 300});
+            written.put("com.example.two", new long[]{50});
+            written.put("com.example.three", new long[]{400, 500});
+            SmsUsageMonitor.writeSendWindows(atomicFile, written);
+
+            // Timestamps before 150 have expired and windows are capped at two timestamps.
+            Map<String, SmsUsageMonitor.SendWindow> windows = new ArrayMap<>();
+            SmsUsageMonitor.readSendWindows(atomicFile, 2, 150, windows);
+
+            assertEquals(2, windows.size());
+            assertArrayEquals(new long[]{200, 300}, windows.get("com.example.one").toArray());
+            assertArrayEquals(new long[]{400, 500}, windows.get("com.example.three").toArray());
+            assertEquals(2, windows.get("com.example.one").capacity());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSendWindows_readMissingFile() throws Exception {
+        File file = File.createTempFile("sms_send_windows", ".xml");
+        file.delete();
+        Map<String, SmsUsageMonitor.SendWindow> windows = new ArrayMap<>();
+        SmsUsageMonitor.readSendWindows(new AtomicFile(file), 2, 0, windows);
+        assertTrue(windows.isEmpty());
+    }
+}
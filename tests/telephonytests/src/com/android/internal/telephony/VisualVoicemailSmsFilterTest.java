@@ -17,6 +17,9 @@
 package com.android.internal.telephony;
 
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.ComponentName;
@@ -86,6 +89,7 @@ public class VisualVoicemailSmsFilterTest extends TestCase {
     @Before
     public void setUp() throws Exception {
         super.setUp();
+        VisualVoicemailSmsFilter.resetPatternsForTest();
         mContext = Mockito.mock(Context.class);
         mTelephonyManager = Mockito.mock(TelephonyManager.class);
         when(mContext.getSystemServiceName(TelephonyManager.class))
@@ -107,6 +111,7 @@ public class VisualVoicemailSmsFilterTest extends TestCase {
     @After
     public void tearDown() throws Exception {
         VisualVoicemailSmsFilter.setPhoneAccountHandleConverterForTest(null);
+        VisualVoicemailSmsFilter.resetPatternsForTest();
         mContext = null;
         mTelephonyManager = null;
         super.tearDown();
@@ -145,6 +150,30 @@ public class VisualVoicemailSmsFilterTest extends TestCase {
                         0));
     }
 
+    public void testFilterNotSet_noVvmPattern_notFilteredWithoutMatching() {
+        setSettings(null);
+        Resources resources = Mockito.mock(Resources.class);
+        when(mContext.getResources())
+                .thenReturn(resources);
+        when(resources.getStringArray(com.android.internal.R.array.config_vvmSmsFilterRegexes))
+                .thenReturn(new String[0]);
+        int filterCount = VisualVoicemailSmsFilter.getFilterCountForTest();
+
+        assertFalse(
+                VisualVoicemailSmsFilter.filter(mContext, VZWVVM_PDU, SmsConstants.FORMAT_3GPP, 0,
+                        0));
+        assertFalse(
+                VisualVoicemailSmsFilter.filter(mContext, VZWVVM_PDU, SmsConstants.FORMAT_3GPP, 0,
+                        0));
+
+        // The empty patterns are only built once and never matched against the message.
+        verify(resources, times(1))
+                .getStringArray(com.android.internal.R.array.config_vvmSmsFilterRegexes);
+        verify(mTelephonyManager, never()).getSimOperator(anyInt());
+        // Both SMS are still accounted for in the timing stats.
+        assertEquals(filterCount + 2, VisualVoicemailSmsFilter.getFilterCountForTest());
+    }
+
     public void testOriginatingNumber_unspecified_filtered() {
         setSettings(new VisualVoicemailSmsFilterSettings.Builder().build());
         assertTrue(VisualVoicemailSmsFilter
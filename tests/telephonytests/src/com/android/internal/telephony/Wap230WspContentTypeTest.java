@@ -870,4 +870,34 @@ public class Wap230WspContentTypeTest extends TestCase {
         WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
         assertFalse(unit.decodeContentType(0));
     }
+
+    public void testDecodesManyParameters() throws Exception {
+        final int paramCount = 5000;
+        ByteArrayOutputStream params = new ByteArrayOutputStream();
+        for (int i = 0; i < paramCount; i++) {
+            params.write(("p" + i).getBytes("US-ASCII"));
+            params.write(WSP_STRING_TERMINATOR);
+            params.write(0x00); // No-value
+        }
+        int valueLength = 1 + params.size();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x1F); // Length-quote
+        // Uintvar-integer value length, at most three octets here.
+        out.write(0x80 | ((valueLength >> 14) & 0x7F));
+        out.write(0x80 | ((valueLength >> 7) & 0x7F));
+        out.write(valueLength & 0x7F);
+        out.write(SHORT_MIME_TYPE_ROLLOVER_CERTIFICATE | WSP_SHORT_INTEGER_MASK);
+        params.writeTo(out);
+
+        WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
+        assertTrue(unit.decodeContentType(0));
+
+        assertEquals(STRING_MIME_TYPE_ROLLOVER_CERTIFICATE, unit.getValueString());
+        assertEquals(out.size(), unit.getDecodedDataLength());
+        Map<String, String> decoded = unit.getContentParameters();
+        assertEquals(paramCount, decoded.size());
+        assertTrue(decoded.containsKey("p" + (paramCount - 1)));
+        assertNull(decoded.get("p0"));
+    }
 }
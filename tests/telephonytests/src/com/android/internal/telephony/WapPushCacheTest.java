@@ -141,4 +141,51 @@ public class WapPushCacheTest extends TelephonyTest {
                 WapPushCache.getWapMessageSize(location1)
         );
     }
+
+    @Test
+    public void testGetWapMessageSize_expiredEntryNotReturned() {
+        long currentTime = Clock.systemUTC().millis();
+        TelephonyFacade facade = mock(TelephonyFacade.class);
+        when(facade.getElapsedSinceBootMillis()).thenReturn(currentTime);
+        WapPushCache.sTelephonyFacade = facade;
+
+        byte[] location = "content://mms".getBytes();
+        WapPushCache.putWapMessageSize(location, "abc".getBytes(), 100L);
+
+        when(facade.getElapsedSinceBootMillis())
+                .thenReturn(currentTime + TimeUnit.DAYS.toMillis(14) + 1);
+
+        assertThrows(NoSuchElementException.class, () ->
+                WapPushCache.getWapMessageSize(location)
+        );
+        assertEquals(0, WapPushCache.size());
+    }
+
+    @Test
+    public void testPutWapMessageSize_refreshedEntryExpiresLast() {
+        long currentTime = Clock.systemUTC().millis();
+        TelephonyFacade facade = mock(TelephonyFacade.class);
+        when(facade.getElapsedSinceBootMillis()).thenReturn(currentTime);
+        WapPushCache.sTelephonyFacade = facade;
+
+        byte[] transactionId = "abc".getBytes();
+        byte[] location1 = "first".getBytes();
+        byte[] location2 = "second".getBytes();
+        WapPushCache.putWapMessageSize(location1, transactionId, 100L);
+        WapPushCache.putWapMessageSize(location2, transactionId, 200L);
+
+        // Refresh the first entry a day later; it must now outlive the second one.
+        when(facade.getElapsedSinceBootMillis())
+                .thenReturn(currentTime + TimeUnit.DAYS.toMillis(1));
+        WapPushCache.putWapMessageSize(location1, transactionId, 300L);
+
+        when(facade.getElapsedSinceBootMillis())
+                .thenReturn(currentTime + TimeUnit.DAYS.toMillis(14) + 1);
+
+        assertEquals(300L, WapPushCache.getWapMessageSize(location1));
+        assertThrows(NoSuchElementException.class, () ->
+                WapPushCache.getWapMessageSize(location2)
+        );
+        assertEquals(2, WapPushCache.size());
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class ComprehensionTlvTest {
+    private static final int FUZZ_ITERATIONS = 500;
+
+    /** Expected decoding of one generated TLV. */
+    private static class Expected {
+        int tag;
+        boolean cr;
+        int length;
+        int valueIndex;
+    }
+
+    private static void encode(ByteArrayOutputStream out, List<Expected> expected, Random random) {
+        Expected e = new Expected();
+        boolean threeByteTag = random.nextInt(4) == 0;
+        if (threeByteTag) {
+            e.tag = 0x100 + random.nextInt(0x7f00);
+            e.cr = random.nextBoolean();
+            int raw = e.tag | (e.cr ? 0x8000 : 0);
+            out.write(0x7f);
+            out.write((raw >> 8) & 0xff);
+            out.write(raw & 0xff);
+        } else {
+            // Avoid the reserved first bytes 0x00, 0x80, 0xff and the 0x7f escape.
+            do {
+                e.tag = random.nextInt(0x7f);
+            } while (e.tag == 0x00);
+            e.cr = random.nextBoolean();
+            out.write(e.tag | (e.cr ? 0x80 : 0));
+        }
+
+        e.length = random.nextInt(8) == 0 ? 0x80 + random.nextInt(0x80) : random.nextInt(0x80);
+        if (e.length < 0x80) {
+            out.write(e.length);
+        } else {
+            out.write(0x81);
+            out.write(e.length);
+        }
+        e.valueIndex = out.size();
+        for (int i = 0; i < e.length; i++) {
+            out.write(random.nextInt(0x100));
+        }
+        expected.add(e);
+    }
+
+    @Test
+    public void testDecodeMany_matchesEncodedLayout() throws Exception {
+        Random random = new Random(0x5a7);
+        for (int iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            List<Expected> expected = new ArrayList<>();
+            int count = 1 + random.nextInt(20);
+            for (int i = 0; i < count; i++) {
+                encode(out, expected, random);
+            }
+            byte[] data = out.toByteArray();
+
+            List<ComprehensionTlv> ctlvs = ComprehensionTlv.decodeMany(data, 0);
+            assertEquals(expected.size(), ctlvs.size());
+            for (int i = 0; i < ctlvs.size(); i++) {
+                ComprehensionTlv ctlv = ctlvs.get(i);
+                Expected e = expected.get(i);
+                assertEquals(e.tag, ctlv.getTag());
+                assertEquals(e.cr, ctlv.isComprehensionRequired());
+                assertEquals(e.length, ctlv.getLength());
+                assertEquals(e.valueIndex, ctlv.getValueIndex());
+                // Values must be views over the original buffer, never copies.
+                assertSame(data, ctlv.getRawValue());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeMany_stopsAtReservedTagByte() throws Exception {
+        byte[] data = new byte[] {(byte) 0x81, 0x03, 0x01, 0x21, 0x00, (byte) 0xff, 0x01, 0x02};
+        List<ComprehensionTlv> ctlvs = ComprehensionTlv.decodeMany(data, 0);
+        assertEquals(1, ctlvs.size());
+        assertEquals(ComprehensionTlvTag.COMMAND_DETAILS.value(), ctlvs.get(0).getTag());
+        assertTrue(ctlvs.get(0).isComprehensionRequired());
+    }
+
+    @Test
+    public void testDecodeMany_truncatedInputNeverThrowsUnchecked() {
+        Random random = new Random(0x7e1);
+        for (int iteration = 0; iteration < FUZZ_ITERATIONS; iteration++) {
+            byte[] data = new byte[random.nextInt(16)];
+            random.nextBytes(data);
+            try {
+                ComprehensionTlv.decodeMany(data, 0);
+            } catch (ResultException e) {
+                assertEquals(ResultCode.CMD_DATA_NOT_UNDERSTOOD, e.result());
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class IconLoaderTest {
+    private static final int FUZZ_ITERATIONS = 100;
+
+    // 5x3 basic image: 15 pixels, so the last byte is only partially used.
+    private static final byte[] BNW_ICON = {
+            0x05, 0x03, (byte) 0xB3, 0x5A};
+
+    // 4x2 colour image, 2 bits per pixel, 4 CLUT entries at offset 0x000A.
+    private static final byte[] COLOUR_ICON = {
+            0x04, 0x02, 0x02, 0x04, 0x00, 0x0A, (byte) 0x1B, (byte) 0xE4};
+    private static final byte[] COLOUR_CLUT = {
+            0x00, 0x00, 0x00,
+            0x7F, 0x00, 0x00,
+            0x00, 0x7F, 0x00,
+            0x00, 0x00, 0x7F};
+
+    // 3x2 colour image, 3 bits per pixel, so pixels straddle byte boundaries.
+    private static final byte[] COLOUR_ICON_3_BITS = {
+            0x03, 0x02, 0x03, 0x08, 0x00, 0x0C,
+            (byte) 0x96, 0x3C, (byte) 0xA5, 0x5A, (byte) 0xF0, 0x0F};
+    private static final byte[] COLOUR_CLUT_8_ENTRIES = {
+            0x00, 0x00, 0x00, 0x10, 0x20, 0x30, 0x40, 0x50, 0x60, 0x70, 0x7F, 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D};
+
+    @Test
+    public void testParseToBnW() {
+        int[] pixels = getPixels(IconLoader.parseToBnW(BNW_ICON, BNW_ICON.length));
+
+        int w = Color.WHITE;
+        int b = Color.BLACK;
+        assertArrayEquals(new int[] {
+                w, b, w, w, b,
+                b, w, w, b, w,
+                w, b, w, b, w}, pixels);
+        assertArrayEquals(parseToBnWPixelsLegacy(BNW_ICON), pixels);
+    }
+
+    @Test
+    public void testParseToRGB() {
+        int[] pixels = getPixels(IconLoader.parseToRGB(COLOUR_ICON, COLOUR_ICON.length,
+                false /* transparency */, COLOUR_CLUT.clone()));
+
+        int c0 = Color.rgb(0x00, 0x00, 0x00);
+        int c1 = Color.rgb(0x7F, 0x00, 0x00);
+        int c2 = Color.rgb(0x00, 0x7F, 0x00);
+        int c3 = Color.rgb(0x00, 0x00, 0x7F);
+        assertArrayEquals(new int[] {
+                c0, c1, c2, c3,
+                c3, c2, c1, c0}, pixels);
+        assertArrayEquals(parseToRGBPixelsLegacy(COLOUR_ICON, false, COLOUR_CLUT.clone()),
+                pixels);
+    }
+
+    @Test
+    public void testParseToRGB_transparency() {
+        int[] pixels = getPixels(IconLoader.parseToRGB(COLOUR_ICON, COLOUR_ICON.length,
+                true /* transparency */, COLOUR_CLUT.clone()));
+
+        assertArrayEquals(parseToRGBPixelsLegacy(COLOUR_ICON, true, COLOUR_CLUT.clone()),
+                pixels);
+    }
+
+    @Test
+    public void testParseToRGB_bitsStraddleBytes() {
+        int[] pixels = getPixels(IconLoader.parseToRGB(COLOUR_ICON_3_BITS,
+                COLOUR_ICON_3_BITS.length, false /* transparency */,
+                COLOUR_CLUT_8_ENTRIES.clone()));
+
+        assertEquals(6, pixels.length);
+        assertArrayEquals(parseToRGBPixelsLegacy(COLOUR_ICON_3_BITS, false,
+                COLOUR_CLUT_8_ENTRIES.clone()), pixels);
+    }
+
+    @Test
+    public void testParseMatchesLegacyDecoding_fuzz() {
+        Random random = new Random(0x1c0);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            int width = 1 + random.nextInt(16);
+            int height = 1 + random.nextInt(16);
+
+            byte[] bnw = new byte[2 + (width * height + 7) / 8];
+            random.nextBytes(bnw);
+            bnw[0] = (byte) width;
+            bnw[1] = (byte) height;
+            assertArrayEquals(parseToBnWPixelsLegacy(bnw),
+                    getPixels(IconLoader.parseToBnW(bnw, bnw.length)));
+
+            // 8 bits per pixel would need 256 CLUT entries, which the header can't encode.
+            int bitsPerImg = 1 + random.nextInt(7);
+            int numOfClutEntries = 1 << bitsPerImg;
+            // Enough pixel bytes for the legacy decoder, which may skip bits between bytes.
+            byte[] colour = new byte[6 + width * height + 1];
+            random.nextBytes(colour);
+            colour[0] = (byte) width;
+            colour[1] = (byte) height;
+            colour[2] = (byte) bitsPerImg;
+            colour[3] = (byte) numOfClutEntries;
+            byte[] clut = new byte[numOfClutEntries * 3];
+            random.nextBytes(clut);
+            boolean transparency = random.nextBoolean();
+            assertArrayEquals(parseToRGBPixelsLegacy(colour, transparency, clut.clone()),
+                    getPixels(IconLoader.parseToRGB(colour, colour.length, transparency,
+                            clut.clone())));
+        }
+    }
+
+    private static int[] getPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(),
+                bitmap.getHeight());
+        return pixels;
+    }
+
+    /** The bit-by-bit decoding IconLoader#parseToBnW used before it expanded whole bytes. */
+    private static int[] parseToBnWPixelsLegacy(byte[] data) {
+        int valueIndex = 0;
+        int width = data[valueIndex++] & 0xFF;
+        int height = data[valueIndex++] & 0xFF;
+        int numOfPixels = width * height;
+
+        int[] pixels = new int[numOfPixels];
+
+        int pixelIndex = 0;
+        int bitIndex = 7;
+        byte currentByte = 0x00;
+        while (pixelIndex < numOfPixels) {
+            if (pixelIndex % 8 == 0) {
+                currentByte = data[valueIndex++];
+                bitIndex = 7;
+            }
+            pixels[pixelIndex++] =
+                    ((currentByte >> bitIndex--) & 0x01) == 1 ? Color.WHITE : Color.BLACK;
+        }
+        return pixels;
+    }
+
+    /** The per-pixel CLUT lookup IconLoader#parseToRGB used before it built a palette. */
+    private static int[] parseToRGBPixelsLegacy(byte[] data, boolean transparency,
+            byte[] clut) {
+        int valueIndex = 0;
+        int width = data[valueIndex++] & 0xFF;
+        int height = data[valueIndex++] & 0xFF;
+        int bitsPerImg = data[valueIndex++] & 0xFF;
+        int numOfClutEntries = data[valueIndex++] & 0xFF;
+
+        if (transparency) {
+            clut[numOfClutEntries - 1] = Color.TRANSPARENT;
+        }
+
+        int numOfPixels = width * height;
+        int[] pixels = new int[numOfPixels];
+
+        valueIndex = 6;
+        int pixelIndex = 0;
+        int bitsStartOffset = 8 - bitsPerImg;
+        int bitIndex = bitsStartOffset;
+        byte currentByte = data[valueIndex++];
+        int mask = (1 << bitsPerImg) - 1;
+        boolean bitsOverlaps = (8 % bitsPerImg == 0);
+        while (pixelIndex < numOfPixels) {
+            if (bitIndex < 0) {
+                currentByte = data[valueIndex++];
+                bitIndex = bitsOverlaps ? (bitsStartOffset) : (bitIndex * -1);
+            }
+            int clutEntry = ((currentByte >> bitIndex) & mask);
+            int clutIndex = clutEntry * 3;
+            pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
+                    clut[clutIndex + 1], clut[clutIndex + 2]);
+            bitIndex -= bitsPerImg;
+        }
+        return pixels;
+    }
+}
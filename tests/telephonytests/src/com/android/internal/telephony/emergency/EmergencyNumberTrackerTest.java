@@ -18,6 +18,10 @@ package com.android.internal.telephony.emergency;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.any;
@@ -72,6 +76,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -155,6 +160,7 @@ public class EmergencyNumberTrackerTest extends TelephonyTest {
         doReturn(mPackageManager).when(mMockContext).getPackageManager();
 
         initializeEmergencyNumberListTestSamples();
+        EmergencyNumberTracker.clearEccDatabases();
         mEmergencyNumberTrackerMock = new EmergencyNumberTracker(mPhone, mSimulatedCommands,
                 mFeatureFlags);
         mEmergencyNumberTrackerMock2 = new EmergencyNumberTracker(mPhone2, mSimulatedCommands,
@@ -195,6 +201,7 @@ public class EmergencyNumberTrackerTest extends TelephonyTest {
                 logd("Failed to close emergency number db file folder for testing " + e.toString());
             }
         }
+        EmergencyNumberTracker.clearEccDatabases();
         super.tearDown();
     }
 
@@ -366,6 +373,35 @@ public class EmergencyNumberTrackerTest extends TelephonyTest {
                 mEmergencyNumberTrackerMock.getRadioEmergencyNumberList());
     }
 
+    @Test
+    public void testEmergencyNumberLookupFollowsRadioListUpdates() throws Exception {
+        EmergencyNumber radioNumber = new EmergencyNumber("55501", "jp", "30",
+                EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_POLICE,
+                new ArrayList<String>(),
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING,
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+        List<EmergencyNumber> radioList = new ArrayList<>(mEmergencyNumberListTestSample);
+        radioList.add(radioNumber);
+        mEmergencyNumberTrackerMock.sendMessage(
+                mEmergencyNumberTrackerMock.obtainMessage(
+                        1 /* EVENT_UNSOL_EMERGENCY_NUMBER_LIST */,
+                        new AsyncResult(null, radioList, null)));
+        processAllMessages();
+
+        assertTrue(mEmergencyNumberTrackerMock.isEmergencyNumber("555-01"));
+        assertEquals(radioNumber, mEmergencyNumberTrackerMock.getEmergencyNumber("55501"));
+        assertEquals(1, mEmergencyNumberTrackerMock.getEmergencyNumbers("55501").size());
+        assertEquals(EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_POLICE,
+                mEmergencyNumberTrackerMock.getEmergencyServiceCategories("55501"));
+
+        // The lookup must reflect the new radio list once it no longer contains the number.
+        sendEmergencyNumberListFromRadio();
+
+        assertFalse(mEmergencyNumberTrackerMock.isEmergencyNumber("55501"));
+        assertNull(mEmergencyNumberTrackerMock.getEmergencyNumber("55501"));
+        assertTrue(mEmergencyNumberTrackerMock.getEmergencyNumbers("55501").isEmpty());
+    }
+
     @Test
     public void testRegistrationForCountryChangeIntent() throws Exception {
         EmergencyNumberTracker localEmergencyNumberTracker;
@@ -814,6 +850,111 @@ public class EmergencyNumberTrackerTest extends TelephonyTest {
         resetOtaEmergencyNumberDbFileFolderForTesting(mEmergencyNumberTrackerMock);
     }
 
+    /**
+     * Test that the asset database is indexed once and shared by the trackers of all phones.
+     */
+    @Test
+    public void testAssetEccDatabaseSharedBetweenTrackers() throws Exception {
+        cacheEmergencyNumberListFromDatabaseByCountry("us");
+        EmergencyNumberTracker.EccDatabase assetEccDatabase =
+                EmergencyNumberTracker.sAssetEccDatabase;
+        assertNotNull(assetEccDatabase);
+        assertTrue(hasDbEmergencyNumber(mUsEmergencyNumber,
+                mEmergencyNumberTrackerMock.getEmergencyNumberList()));
+
+        // A country change does not read the asset again.
+        cacheEmergencyNumberListFromDatabaseByCountry("jp");
+        assertSame(assetEccDatabase, EmergencyNumberTracker.sAssetEccDatabase);
+
+        // Nor does the tracker of another phone.
+        mEmergencyNumberTrackerMock2.updateEmergencyNumberDatabaseCountryChange("us");
+        processAllMessages();
+        assertSame(assetEccDatabase, EmergencyNumberTracker.sAssetEccDatabase);
+        assertTrue(hasDbEmergencyNumber(mUsEmergencyNumber,
+                mEmergencyNumberTrackerMock2.getEmergencyNumberList()));
+    }
+
+    /**
+     * Test that a country missing from the database yields no database numbers.
+     */
+    @Test
+    public void testEccDatabaseMissingCountry() throws Exception {
+        cacheEmergencyNumberListFromDatabaseByCountry("us");
+        EmergencyNumberTracker.EccDatabase assetEccDatabase =
+                EmergencyNumberTracker.sAssetEccDatabase;
+        assertNotNull(assetEccDatabase);
+        assertTrue(assetEccDatabase.getEccs("us").length > 0);
+        assertEquals(0, assetEccDatabase.getEccs("zz").length);
+
+        cacheEmergencyNumberListFromDatabaseByCountry("zz");
+        assertFalse(hasDbEmergencyNumber(mUsEmergencyNumber,
+                mEmergencyNumberTrackerMock.getEmergencyNumberList()));
+        assertSame(assetEccDatabase, EmergencyNumberTracker.sAssetEccDatabase);
+    }
+
+    /**
+     * Test that the OTA database is only indexed again once its file changes.
+     */
+    @Test
+    public void testOtaEccDatabaseReindexedOnFileChange() throws Exception {
+        mEmergencyNumberTrackerMock.updateEmergencyCountryIsoAllPhones("us");
+        processAllMessages();
+        setOtaEmergencyNumberDbFileFolderForTesting(mEmergencyNumberTrackerMock, mPhone);
+        sendOtaEmergencyNumberDb(mEmergencyNumberTrackerMock);
+        EmergencyNumberTracker.EccDatabase otaEccDatabase =
+                EmergencyNumberTracker.sOtaEccDatabase;
+        assertNotNull(otaEccDatabase);
+        assertTrue(hasDbEmergencyNumber(OTA_EMERGENCY_NUMBER_ADDRESS,
+                mEmergencyNumberTrackerMock.getEmergencyNumberList()));
+
+        // An unchanged file is not read again on a country change.
+        cacheEmergencyNumberListFromDatabaseByCountry("jp");
+        assertSame(otaEccDatabase, EmergencyNumberTracker.sOtaEccDatabase);
+
+        // A new modification time is detected.
+        File file = new File(Environment.getExternalStorageDirectory(), LOCAL_DOWNLOAD_DIRECTORY
+                + "/" + EMERGENCY_NUMBER_DB_OTA_FILE);
+        long lastModified = file.lastModified();
+        assertTrue(file.setLastModified(lastModified + 2000));
+        cacheEmergencyNumberListFromDatabaseByCountry("us");
+        assertNotSame(otaEccDatabase, EmergencyNumberTracker.sOtaEccDatabase);
+        otaEccDatabase = EmergencyNumberTracker.sOtaEccDatabase;
+        assertNotNull(otaEccDatabase);
+        assertTrue(hasDbEmergencyNumber(OTA_EMERGENCY_NUMBER_ADDRESS,
+                mEmergencyNumberTrackerMock.getEmergencyNumberList()));
+
+        // So is a new length with the same modification time. Trailing bytes after the gzip
+        // member are ignored by the reader.
+        lastModified = file.lastModified();
+        Files.write(file.toPath(), new byte[32], StandardOpenOption.APPEND);
+        assertTrue(file.setLastModified(lastModified));
+        cacheEmergencyNumberListFromDatabaseByCountry("us");
+        assertNotSame(otaEccDatabase, EmergencyNumberTracker.sOtaEccDatabase);
+        assertTrue(hasDbEmergencyNumber(OTA_EMERGENCY_NUMBER_ADDRESS,
+                mEmergencyNumberTrackerMock.getEmergencyNumberList()));
+
+        resetOtaEmergencyNumberDbFileFolderForTesting(mEmergencyNumberTrackerMock);
+    }
+
+    /**
+     * Test that overriding the OTA database file drops the indexed OTA database.
+     */
+    @Test
+    public void testOtaEccDatabaseClearedOnOverride() throws Exception {
+        mEmergencyNumberTrackerMock.updateEmergencyCountryIsoAllPhones("us");
+        processAllMessages();
+        setOtaEmergencyNumberDbFileFolderForTesting(mEmergencyNumberTrackerMock, mPhone);
+        sendOtaEmergencyNumberDb(mEmergencyNumberTrackerMock);
+        assertNotNull(EmergencyNumberTracker.sOtaEccDatabase);
+
+        resetOtaEmergencyNumberDbFileFolderForTesting(mEmergencyNumberTrackerMock);
+        assertNull(EmergencyNumberTracker.sOtaEccDatabase);
+
+        // The default OTA file does not exist in tests, so nothing is indexed again.
+        sendOtaEmergencyNumberDb(mEmergencyNumberTrackerMock);
+        assertNull(EmergencyNumberTracker.sOtaEccDatabase);
+    }
+
     @Test
     public void testEmergencyNumberListPrefix() throws Exception {
         sendEmergencyNumberListFromRadio();
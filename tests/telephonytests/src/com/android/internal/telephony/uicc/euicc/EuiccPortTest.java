@@ -204,6 +204,97 @@ public class EuiccPortTest extends TelephonyTest {
         verifyStoreData(channel, "BF2D0D5C0B5A909192B79F709599BF76");
     }
 
+    @Test
+    public void testGetAllProfiles_cachedUntilProfileDeleted() {
+        int channel = mockLogicalChannelResponses(
+                "BF2D14A012E3105A0A896700000000004523019F7001019000",
+                "BF33038001009000",
+                "BF2D14A012E3105A0A896700000000004523019F7001019000");
+
+        ResultCaptor<EuiccProfileInfo[]> resultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(resultCaptor, mHandler);
+        processAllMessages();
+        ResultCaptor<EuiccProfileInfo[]> cachedResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(cachedResultCaptor, mHandler);
+        processAllMessages();
+
+        assertUnexpectedException(cachedResultCaptor.exception);
+        assertEquals(1, cachedResultCaptor.result.length);
+        assertEquals("98760000000000543210", cachedResultCaptor.result[0].getIccid());
+        verifyStoreData(channel, "BF2D0D5C0B5A909192B79F709599BF76");
+
+        ResultCaptor<Void> deleteResultCaptor = new ResultCaptor<>();
+        mEuiccPort.deleteProfile("98760000000000543210", deleteResultCaptor, mHandler);
+        processAllMessages();
+        ResultCaptor<EuiccProfileInfo[]> refreshedResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(refreshedResultCaptor, mHandler);
+        processAllMessages();
+
+        assertUnexpectedException(refreshedResultCaptor.exception);
+        verify(mMockCi, times(2))
+                .iccTransmitApduLogicalChannel(eq(channel), eq(0x80 | channel), eq(0xE2), eq(0x91),
+                        eq(0), eq(16), eq("BF2D0D5C0B5A909192B79F709599BF76"), anyBoolean(),
+                        any());
+    }
+
+    @Test
+    public void testGetAllProfiles_readOverlappingDeleteNotCached() throws Exception {
+        int channel = mockLogicalChannelResponses(
+                "BF2D14A012E3105A0A896700000000004523019F7001019000",
+                "BF33038001009000",
+                "BF2D02A0009000");
+
+        ResultCaptor<EuiccProfileInfo[]> resultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(resultCaptor, mHandler);
+        processAllMessages();
+        assertUnexpectedException(resultCaptor.exception);
+
+        ResultCaptor<Void> deleteResultCaptor = new ResultCaptor<>();
+        mEuiccPort.deleteProfile("98760000000000543210", deleteResultCaptor, mHandler);
+        // A read queued after the delete reached the card first and cached the profile list
+        // from before the delete.
+        replaceInstance(EuiccPort.class, "mCachedProfiles", mEuiccPort, resultCaptor.result);
+        processAllMessages();
+        assertUnexpectedException(deleteResultCaptor.exception);
+
+        ResultCaptor<EuiccProfileInfo[]> refreshedResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(refreshedResultCaptor, mHandler);
+        processAllMessages();
+
+        assertUnexpectedException(refreshedResultCaptor.exception);
+        assertEquals(0, refreshedResultCaptor.result.length);
+        verify(mMockCi, times(2))
+                .iccTransmitApduLogicalChannel(eq(channel), eq(0x80 | channel), eq(0xE2), eq(0x91),
+                        eq(0), eq(16), eq("BF2D0D5C0B5A909192B79F709599BF76"), anyBoolean(),
+                        any());
+    }
+
+    @Test
+    public void testUpdate_closesIdleChannel() {
+        int channel = mockLogicalChannelResponses(
+                "BF2D14A012E3105A0A896700000000004523019F7001019000",
+                "BF20030102039000");
+
+        ResultCaptor<EuiccProfileInfo[]> resultCaptor = new ResultCaptor<>();
+        mEuiccPort.getAllProfiles(resultCaptor, mHandler);
+        processAllMessages();
+        assertUnexpectedException(resultCaptor.exception);
+        // The channel is kept open for the next operation.
+        verify(mMockCi, never()).iccCloseLogicalChannel(eq(channel), anyBoolean(), any());
+
+        // The card status changes, e.g. because the card was reset.
+        mEuiccPort.update(mContext, mMockCi, mMockIccCardStatus, mEuiccCard);
+        processAllMessages();
+        verify(mMockCi, times(1)).iccCloseLogicalChannel(eq(channel), anyBoolean(), any());
+
+        // The next operation opens a new channel.
+        ResultCaptor<byte[]> euiccInfo1ResultCaptor = new ResultCaptor<>();
+        mEuiccPort.getEuiccInfo1(euiccInfo1ResultCaptor, mHandler);
+        processAllMessages();
+        assertEquals("BF2003010203", IccUtils.bytesToHexString(euiccInfo1ResultCaptor.result));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(any(), anyInt(), any());
+    }
+
     @Test
     public void testEnabledOnEsimPort_GetAllProfiles() {
         int channel = mockLogicalChannelResponses(
@@ -343,4 +343,63 @@ public class ApduSenderTest {
         assertTrue(mResponseCaptor.exception instanceof ApduException);
         verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
     }
+
+    @Test
+    public void testSend_idleChannelReused() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "A1A19000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "B19000", "B29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("B1", IccUtils.bytesToHexString(mResponseCaptor.response));
+
+        ResponseCaptor secondResponseCaptor = new ResponseCaptor();
+        mSender.send((selectResponse, requestBuilder) -> {
+            mSelectResponse = selectResponse;
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "b");
+        }, secondResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("B2", IccUtils.bytesToHexString(secondResponseCaptor.response));
+        assertEquals("A1A19000", IccUtils.bytesToHexString(mSelectResponse));
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, never()).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testSend_idleChannelClosedAfterTimeout() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "B19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        verify(mMockCi, never()).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+
+        mLooper.moveTimeForward(1000);
+        mLooper.processAllMessages();
+
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
+
+    @Test
+    public void testSend_closeAfterRequestWithIdleTimeout() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "B19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler, true /* closeAfterRequest */);
+        mLooper.processAllMessages();
+
+        // The channel is closed before the result is returned, without waiting for the timeout.
+        assertEquals("B1", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
 }